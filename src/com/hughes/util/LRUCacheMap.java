@@ -14,6 +14,7 @@
 
 package com.hughes.util;
 
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 
 public class LRUCacheMap<K,V> extends LinkedHashMap<K, V> {
@@ -27,6 +28,18 @@ public class LRUCacheMap<K,V> extends LinkedHashMap<K, V> {
     this.maxSize = maxSize;
   }
 
+  /**
+   * Changes the bound, evicting the least recently used entries if needed.
+   */
+  public void setMaxSize(final int maxSize) {
+    this.maxSize = maxSize;
+    final Iterator<K> eldest = keySet().iterator();
+    while (size() > maxSize) {
+      eldest.next();
+      eldest.remove();
+    }
+  }
+
   @Override
   protected boolean removeEldestEntry(java.util.Map.Entry<K, V> eldest) {
     return this.size() > maxSize;
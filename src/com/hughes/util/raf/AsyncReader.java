@@ -0,0 +1,118 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Non-blocking access to a list whose get() does disk reads, like RAFList or
+ * CompressedList: each get runs on a bounded I/O executor, and the caller
+ * gets a Future and, optionally, a callback when the element is ready.
+ * 
+ * The lists are safe to read from the executor's threads when they're opened
+ * on a ByteSource; lists opened on a RandomAccessFile serialize on it.
+ * 
+ * Cancel the returned Futures with cancel(false), never cancel(true): an
+ * interrupt that reaches a read on a ChannelByteSource closes the channel,
+ * and with it the list, for every reader.
+ */
+public class AsyncReader<T> {
+
+  public interface Callback<T> {
+    void onSuccess(final T result);
+
+    void onFailure(final Throwable error);
+  }
+
+  private final List<T> list;
+  private final Executor executor;
+
+  public AsyncReader(final List<T> list, final Executor executor) {
+    this.list = list;
+    this.executor = executor;
+  }
+
+  public static <T> AsyncReader<T> create(final List<T> list,
+      final Executor executor) {
+    return new AsyncReader<T>(list, executor);
+  }
+
+  /**
+   * Returns a fixed pool of daemon threads to do the reads on.
+   */
+  public static ExecutorService newIoExecutor(final int numThreads) {
+    return Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable r) {
+        final Thread thread = new Thread(r, "AsyncReader");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  public Future<T> getAsync(final int i) {
+    return getAsync(i, null);
+  }
+
+  /**
+   * Reads element i on the executor. If callback isn't null it's called on
+   * the executor's thread once the read finishes. Nothing, not even size(),
+   * is read on the calling thread, so an i out of range fails the read with
+   * IndexOutOfBoundsException rather than this call.
+   */
+  public Future<T> getAsync(final int i, final Callback<? super T> callback) {
+    return submit(new Callable<T>() {
+      @Override
+      public T call() {
+        return list.get(i);
+      }
+    }, callback);
+  }
+
+  /**
+   * Runs a read of any kind, e.g. a getAll() or getRange(), on the executor.
+   */
+  public <V> Future<V> submit(final Callable<V> read,
+      final Callback<? super V> callback) {
+    final FutureTask<V> task = new FutureTask<V>(read) {
+      @Override
+      protected void done() {
+        if (callback == null || isCancelled()) {
+          return;
+        }
+        try {
+          callback.onSuccess(get());
+        } catch (ExecutionException e) {
+          callback.onFailure(e.getCause());
+        } catch (InterruptedException e) {
+          // Can't happen: the task is done.
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    executor.execute(task);
+    return task;
+  }
+
+}
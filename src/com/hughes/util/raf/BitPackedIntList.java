@@ -0,0 +1,255 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.RandomAccess;
+
+/**
+ * A list of ints packed with frame-of-reference coding: each block of
+ * blockSize values stores its minimum, and every value in the block as its
+ * difference from the minimum in just enough bits for the block's largest
+ * difference. Lists of small-range values take a fraction of the 4 bytes per
+ * value of a UniformRAFList, and getInt(i) is still O(1).
+ * 
+ * Format: int size, int blockSize, long blocksOffset, the packed longs of each
+ * block in turn, then for each block int min, int bitWidth, int firstWord.
+ */
+public class BitPackedIntList extends AbstractList<Integer> implements RandomAccess {
+
+  public static final int DEFAULT_BLOCK_SIZE = 128;
+  private static final int HEADER_BYTES = 16;
+  private static final int BLOCK_INTS = 3;
+
+  final int size;
+  final int blockSize;
+  private final LongBuffer words;
+  private final IntBuffer blocks;
+  final long endOffset;
+
+  public BitPackedIntList(final ByteSource source, final long startOffset)
+      throws IOException {
+    final ByteBuffer header = source.read(startOffset, HEADER_BYTES);
+    size = header.getInt();
+    blockSize = header.getInt();
+    final long blocksOffset = header.getLong();
+    final long wordsOffset = startOffset + HEADER_BYTES;
+    words = source.read(wordsOffset, (int) (blocksOffset - wordsOffset))
+        .asLongBuffer();
+    final int numBlocks = (size + blockSize - 1) / blockSize;
+    blocks = source.read(blocksOffset, numBlocks * BLOCK_INTS * 4)
+        .asIntBuffer();
+    endOffset = blocksOffset + numBlocks * BLOCK_INTS * 4;
+  }
+
+  public static BitPackedIntList create(final ByteSource source,
+      final long startOffset) throws IOException {
+    return new BitPackedIntList(source, startOffset);
+  }
+
+  public static BitPackedIntList create(final RandomAccessFile raf,
+      final long startOffset) throws IOException {
+    return new BitPackedIntList(new RAFByteSource(raf), startOffset);
+  }
+
+  public long getEndOffset() {
+    return endOffset;
+  }
+
+  public int getInt(final int i) {
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException(i + ", size=" + size);
+    }
+    final int block = i / blockSize;
+    final int min = blocks.get(block * BLOCK_INTS);
+    final int bitWidth = blocks.get(block * BLOCK_INTS + 1);
+    if (bitWidth == 0) {
+      return min;
+    }
+    final long bit = (long) (i - block * blockSize) * bitWidth;
+    return min + (int) unpack(blocks.get(block * BLOCK_INTS + 2)
+        + (int) (bit >>> 6), (int) (bit & 63), bitWidth);
+  }
+
+  private long unpack(final int word, final int shift, final int bitWidth) {
+    long value = words.get(word) >>> shift;
+    if (shift + bitWidth > 64) {
+      value |= words.get(word + 1) << (64 - shift);
+    }
+    return value & ((1L << bitWidth) - 1);
+  }
+
+  @Override
+  public Integer get(final int i) {
+    return getInt(i);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Copies length values starting at from into dest, unpacking a block at a
+   * time.
+   */
+  public void getInts(final int from, final int[] dest, final int offset,
+      final int length) {
+    if (from < 0 || length < 0 || from + length > size) {
+      throw new IndexOutOfBoundsException(from + "+" + length + ", size=" + size);
+    }
+    int i = from;
+    while (i < from + length) {
+      final int block = i / blockSize;
+      final int blockEnd = Math.min(from + length, (block + 1) * blockSize);
+      final int min = blocks.get(block * BLOCK_INTS);
+      final int bitWidth = blocks.get(block * BLOCK_INTS + 1);
+      final int firstWord = blocks.get(block * BLOCK_INTS + 2);
+      long bit = (long) (i - block * blockSize) * bitWidth;
+      for (; i < blockEnd; ++i, bit += bitWidth) {
+        dest[offset + i - from] = bitWidth == 0 ? min
+            : min + (int) unpack(firstWord + (int) (bit >>> 6),
+                (int) (bit & 63), bitWidth);
+      }
+    }
+  }
+
+  public int[] toIntArray() {
+    final int[] result = new int[size];
+    getInts(0, result, 0, size);
+    return result;
+  }
+
+  public static void write(final RandomAccessFile raf, final int[] values,
+      final int blockSize) throws IOException {
+    final Writer writer = new Writer(raf, blockSize);
+    for (final int value : values) {
+      writer.add(value);
+    }
+    writer.finish();
+  }
+
+  public static void write(final RandomAccessFile raf, final int[] values)
+      throws IOException {
+    write(raf, values, DEFAULT_BLOCK_SIZE);
+  }
+
+  /**
+   * Same, for any number of values.
+   */
+  public static void write(final RandomAccessFile raf,
+      final Iterator<Integer> values, final int blockSize) throws IOException {
+    final Writer writer = new Writer(raf, blockSize);
+    while (values.hasNext()) {
+      writer.add(values.next());
+    }
+    writer.finish();
+  }
+
+  /**
+   * Packs values a block at a time as they arrive, and back-patches the
+   * header at the end.
+   */
+  private static final class Writer {
+    private final RandomAccessFile raf;
+    private final long startOffset;
+    private final int[] block;
+    private int blockCount;
+    private int size;
+    private int numWords;
+    private int[] blockInfo = new int[16 * BLOCK_INTS];
+    private int numBlocks;
+
+    Writer(final RandomAccessFile raf, final int blockSize) throws IOException {
+      if (blockSize <= 0) {
+        throw new IllegalArgumentException("blockSize=" + blockSize);
+      }
+      this.raf = raf;
+      startOffset = raf.getFilePointer();
+      block = new int[blockSize];
+      raf.writeInt(0); // placeholder for size
+      raf.writeInt(blockSize);
+      raf.writeLong(0); // placeholder for blocksOffset
+    }
+
+    void add(final int value) throws IOException {
+      block[blockCount++] = value;
+      ++size;
+      if (blockCount == block.length) {
+        flushBlock();
+      }
+    }
+
+    private void flushBlock() throws IOException {
+      int min = block[0];
+      int max = block[0];
+      for (int i = 1; i < blockCount; ++i) {
+        min = Math.min(min, block[i]);
+        max = Math.max(max, block[i]);
+      }
+      final long range = (long) max - min;
+      final int bitWidth = 64 - Long.numberOfLeadingZeros(range);
+      final long[] packed = new long[(int) ((blockCount * (long) bitWidth + 63) / 64)];
+      // A constant block (bitWidth 0) has no words at all.
+      long bit = 0;
+      for (int i = 0; bitWidth > 0 && i < blockCount; ++i, bit += bitWidth) {
+        final long value = (long) block[i] - min;
+        final int word = (int) (bit >>> 6);
+        final int shift = (int) (bit & 63);
+        packed[word] |= value << shift;
+        if (shift + bitWidth > 64) {
+          packed[word + 1] |= value >>> (64 - shift);
+        }
+      }
+      final ByteBuffer bytes = ByteBuffer.allocate(packed.length * 8);
+      bytes.asLongBuffer().put(packed);
+      raf.write(bytes.array());
+
+      if ((numBlocks + 1) * BLOCK_INTS > blockInfo.length) {
+        blockInfo = Arrays.copyOf(blockInfo, blockInfo.length * 2);
+      }
+      blockInfo[numBlocks * BLOCK_INTS] = min;
+      blockInfo[numBlocks * BLOCK_INTS + 1] = bitWidth;
+      blockInfo[numBlocks * BLOCK_INTS + 2] = numWords;
+      ++numBlocks;
+      numWords += packed.length;
+      blockCount = 0;
+    }
+
+    void finish() throws IOException {
+      if (blockCount > 0) {
+        flushBlock();
+      }
+      final long blocksOffset = raf.getFilePointer();
+      final ByteBuffer bytes = ByteBuffer.allocate(numBlocks * BLOCK_INTS * 4);
+      bytes.asIntBuffer().put(blockInfo, 0, numBlocks * BLOCK_INTS);
+      raf.write(bytes.array());
+      final long endOffset = raf.getFilePointer();
+      raf.seek(startOffset);
+      raf.writeInt(size);
+      raf.seek(startOffset + 8);
+      raf.writeLong(blocksOffset);
+      raf.seek(endOffset);
+    }
+  }
+
+}
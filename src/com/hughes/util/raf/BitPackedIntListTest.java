@@ -0,0 +1,115 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class BitPackedIntListTest extends TestCase {
+
+  public void testBitPackedIntList() throws IOException {
+    final File file = File.createTempFile("asdf", "asdf");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    final Random random = new Random(0);
+    final int[] small = new int[10000];
+    for (int i = 0; i < small.length; ++i) {
+      small[i] = 1000 + random.nextInt(20);
+    }
+    final int[] mixed = new int[1000];
+    for (int i = 0; i < mixed.length; ++i) {
+      mixed[i] = i % 300 == 0 ? random.nextInt() : i % 100 == 0 ? 7 : -i;
+    }
+    mixed[500] = Integer.MIN_VALUE;
+    mixed[501] = Integer.MAX_VALUE;
+    final List<Integer> boxed = new ArrayList<Integer>();
+    for (final int value : mixed) {
+      boxed.add(value);
+    }
+
+    raf.writeUTF("Hello World!");
+    final long smallStart = raf.getFilePointer();
+    BitPackedIntList.write(raf, small);
+    final long smallEnd = raf.getFilePointer();
+    BitPackedIntList.write(raf, mixed, 100);
+    BitPackedIntList.write(raf, boxed.iterator(), 7);
+    BitPackedIntList.write(raf, new int[0]);
+    raf.writeUTF("Goodbye World!");
+    // 5 bits per value, plus the block headers.
+    assertTrue(smallEnd - smallStart < small.length);
+
+    for (final ByteSource source : Arrays.<ByteSource>asList(
+        MappedByteSource.map(raf), ChannelByteSource.create(raf))) {
+      final BitPackedIntList smallCopy = BitPackedIntList.create(source,
+          smallStart);
+      assertTrue(Arrays.equals(small, smallCopy.toIntArray()));
+      final BitPackedIntList mixedCopy = BitPackedIntList.create(source,
+          smallCopy.getEndOffset());
+      assertEquals(boxed, mixedCopy);
+      final int[] dest = new int[300];
+      mixedCopy.getInts(450, dest, 0, dest.length);
+      assertTrue(Arrays.equals(Arrays.copyOfRange(mixed, 450, 750), dest));
+      final BitPackedIntList iteratorCopy = BitPackedIntList.create(source,
+          mixedCopy.getEndOffset());
+      assertTrue(Arrays.equals(mixed, iteratorCopy.toIntArray()));
+      final BitPackedIntList empty = BitPackedIntList.create(source,
+          iteratorCopy.getEndOffset());
+      assertEquals(0, empty.size());
+      raf.seek(empty.getEndOffset());
+      assertEquals("Goodbye World!", raf.readUTF());
+    }
+  }
+
+  public void testConstantBlocks() throws IOException {
+    final File file = File.createTempFile("asdf", "asdf");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    final int[] single = {5};
+    final int[] constant = {3, 3, 3, 3};
+    // The last block of the default size holds just one value.
+    final int[] tail = new int[BitPackedIntList.DEFAULT_BLOCK_SIZE + 1];
+    for (int i = 0; i < tail.length; ++i) {
+      tail[i] = i * 3;
+    }
+    final List<int[]> inputs = Arrays.asList(single, constant, tail);
+    final long start = raf.getFilePointer();
+    BitPackedIntList.write(raf, single);
+    // Just the header and one block's min, bitWidth and firstWord.
+    assertEquals(start + 16 + 12, raf.getFilePointer());
+    BitPackedIntList.write(raf, constant);
+    BitPackedIntList.write(raf, tail);
+
+    long offset = start;
+    for (final int[] input : inputs) {
+      final BitPackedIntList copy = BitPackedIntList.create(raf, offset);
+      assertTrue(Arrays.equals(input, copy.toIntArray()));
+      for (int i = 0; i < input.length; ++i) {
+        assertEquals(input[i], copy.getInt(i));
+      }
+      offset = copy.getEndOffset();
+    }
+    assertEquals(raf.getFilePointer(), offset);
+  }
+
+}
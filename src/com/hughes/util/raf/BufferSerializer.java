@@ -0,0 +1,152 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads elements straight out of the buffers that lists have already
+ * fetched or decompressed, so that reading an element needs no streams and
+ * no syscalls. The built-in serializers write the same bytes as their
+ * Serializer and RAFSerializer counterparts, and Wrapper adapts any other
+ * Serializer.
+ */
+public interface BufferSerializer<T> {
+
+  /**
+   * Reads an element starting at in's position, and leaves the position
+   * after it.
+   */
+  public T read(final ByteBuffer in) throws IOException;
+
+  /**
+   * Writes t at out's position, and leaves the position after it. Throws
+   * BufferOverflowException if out doesn't have room, in which case out's
+   * position is undefined.
+   */
+  public void write(final ByteBuffer out, final T t) throws IOException;
+
+  /**
+   * Same format as Serializer.STRING and RAFSerializer.STRING: modified
+   * UTF-8 behind a 2-byte length.
+   */
+  public static final BufferSerializer<String> STRING = new BufferSerializer<String>() {
+    @Override
+    public String read(final ByteBuffer in) throws IOException {
+      return ModifiedUtf8.decode(in, in.getShort() & 0xffff);
+    }
+
+    @Override
+    public void write(final ByteBuffer out, final String t) throws IOException {
+      final int lengthPos = out.position();
+      out.putShort((short) 0); // placeholder for length
+      ModifiedUtf8.encode(t, out);
+      final int length = out.position() - lengthPos - 2;
+      if (length > 0xffff) {
+        throw new UTFDataFormatException("String too long: " + length + " bytes");
+      }
+      out.putShort(lengthPos, (short) length);
+    }
+  };
+
+  public static final BufferSerializer<Long> LONG = new BufferSerializer<Long>() {
+    @Override
+    public Long read(final ByteBuffer in) {
+      return in.getLong();
+    }
+
+    @Override
+    public void write(final ByteBuffer out, final Long t) {
+      out.putLong(t);
+    }
+  };
+
+  public static final BufferSerializer<Integer> INTEGER = new BufferSerializer<Integer>() {
+    @Override
+    public Integer read(final ByteBuffer in) {
+      return in.getInt();
+    }
+
+    @Override
+    public void write(final ByteBuffer out, final Integer t) {
+      out.putInt(t);
+    }
+  };
+
+  /**
+   * Adapts a stream Serializer. Its elements are still read through a
+   * DataInputStream, so this saves the syscalls but not the allocations.
+   */
+  public static final class Wrapper<T> implements BufferSerializer<T> {
+
+    private final Serializer<T> serializer;
+
+    public Wrapper(final Serializer<T> serializer) {
+      this.serializer = serializer;
+    }
+
+    /**
+     * Returns the built-in equivalent of serializer if there is one, and a
+     * Wrapper otherwise.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> BufferSerializer<T> wrap(final Serializer<T> serializer) {
+      if (serializer == Serializer.STRING) {
+        return (BufferSerializer<T>) STRING;
+      }
+      if (serializer == Serializer.LONG) {
+        return (BufferSerializer<T>) LONG;
+      }
+      return new Wrapper<T>(serializer);
+    }
+
+    /**
+     * Returns the built-in equivalent of serializer. RAFSerializers read
+     * straight off a RandomAccessFile, so the others can't be adapted.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> BufferSerializer<T> wrap(final RAFSerializer<T> serializer) {
+      if (serializer == RAFSerializer.STRING) {
+        return (BufferSerializer<T>) STRING;
+      }
+      throw new IllegalArgumentException("No BufferSerializer for " + serializer);
+    }
+
+    @Override
+    public T read(final ByteBuffer in) throws IOException {
+      return serializer.read(new DataInputStream(new ByteBufferInputStream(in)));
+    }
+
+    @Override
+    public void write(final ByteBuffer out, final T t) throws IOException {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final DataOutputStream dataOut = new DataOutputStream(bytes);
+      serializer.write(dataOut, t);
+      dataOut.flush();
+      if (bytes.size() > out.remaining()) {
+        throw new BufferOverflowException();
+      }
+      out.put(bytes.toByteArray());
+    }
+
+  }
+
+}
@@ -0,0 +1,36 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Random access to the bytes of a read-only file without a shared file
+ * pointer, so that lists built on top of it can be read from many threads
+ * without taking a lock.
+ */
+public interface ByteSource {
+
+  /**
+   * Returns a big-endian buffer whose remaining bytes are the length bytes
+   * starting at position. The buffer may be a view of shared memory, so
+   * callers must not write to it.
+   */
+  ByteBuffer read(final long position, final int length) throws IOException;
+
+  long length() throws IOException;
+
+}
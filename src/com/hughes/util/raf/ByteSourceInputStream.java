@@ -0,0 +1,71 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Streams a ByteSource from a start position to the end of the source, one
+ * block at a time. For data whose length isn't known up front, like a
+ * gzipped table of contents.
+ */
+public final class ByteSourceInputStream extends InputStream {
+
+  private static final int BLOCK_SIZE = 8192;
+
+  private final ByteSource source;
+  private long position;
+  private ByteBuffer block = ByteBuffer.allocate(0);
+
+  public ByteSourceInputStream(final ByteSource source, final long position) {
+    this.source = source;
+    this.position = position;
+  }
+
+  private boolean fill() throws IOException {
+    if (block.hasRemaining()) {
+      return true;
+    }
+    final int length = (int) Math.min(BLOCK_SIZE, source.length() - position);
+    if (length <= 0) {
+      return false;
+    }
+    block = source.read(position, length);
+    position += length;
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    return fill() ? block.get() & 0xff : -1;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len)
+      throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!fill()) {
+      return -1;
+    }
+    final int n = Math.min(len, block.remaining());
+    block.get(b, off, n);
+    return n;
+  }
+
+}
@@ -0,0 +1,63 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A ByteSource that does positional reads (pread) on a FileChannel. These
+ * never touch the channel's file pointer, so concurrent readers don't
+ * serialize on it the way seek() and read() on a RandomAccessFile do.
+ * 
+ * Interrupting a thread blocked in a read closes the channel, as with any
+ * interruptible channel.
+ */
+public final class ChannelByteSource implements ByteSource {
+
+  private final FileChannel channel;
+
+  public ChannelByteSource(final FileChannel channel) {
+    this.channel = channel;
+  }
+
+  public static ChannelByteSource create(final RandomAccessFile raf) {
+    return new ChannelByteSource(raf.getChannel());
+  }
+
+  @Override
+  public ByteBuffer read(final long position, final int length)
+      throws IOException {
+    final ByteBuffer result = ByteBuffer.allocate(length);
+    while (result.hasRemaining()) {
+      final int n = channel.read(result, position + result.position());
+      if (n < 0) {
+        throw new EOFException("Read of " + length + " bytes at " + position
+            + ", file length=" + channel.size());
+      }
+    }
+    result.flip();
+    return result;
+  }
+
+  @Override
+  public long length() throws IOException {
+    return channel.size();
+  }
+
+}
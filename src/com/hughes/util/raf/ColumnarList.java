@@ -0,0 +1,194 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * A list of fixed-width records stored column by column: each field of the
+ * records lives in its own contiguous region of the file, so a pass over one
+ * field reads only that field's bytes. Records are assembled by get() only
+ * when asked for; scans can use the per-column accessors instead.
+ * 
+ * Format: int size, int numColumns, int[numColumns] widths, then each
+ * column's size * width bytes in turn.
+ */
+public class ColumnarList<T> extends AbstractList<T> implements RandomAccess {
+
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Splits records into fixed-width fields and puts them back together.
+   */
+  public interface Columns<T> {
+    /**
+     * Bytes per value of each column.
+     */
+    int[] widths();
+
+    /**
+     * Puts each of t's fields into the buffer for its column.
+     */
+    void write(final T t, final ByteBuffer[] fields);
+
+    /**
+     * Builds a record from its fields, one buffer per column, each positioned
+     * at the record's value.
+     */
+    T read(final ByteBuffer[] fields);
+  }
+
+  final Columns<T> columns;
+  final int size;
+  final int[] widths;
+  // Views of the columns; without copying if the source is mapped.
+  final ByteBuffer[] columnData;
+  final long endOffset;
+
+  public ColumnarList(final ByteSource source, final Columns<T> columns,
+      final long startOffset) throws IOException {
+    this.columns = columns;
+    final ByteBuffer header = source.read(startOffset, 8);
+    size = header.getInt();
+    final int numColumns = header.getInt();
+    widths = new int[numColumns];
+    source.read(startOffset + 8, numColumns * 4).asIntBuffer().get(widths);
+    columnData = new ByteBuffer[numColumns];
+    long position = startOffset + 8 + numColumns * 4;
+    for (int c = 0; c < numColumns; ++c) {
+      columnData[c] = source.read(position, size * widths[c]);
+      position += (long) size * widths[c];
+    }
+    endOffset = position;
+  }
+
+  public static <T> ColumnarList<T> create(final ByteSource source,
+      final Columns<T> columns, final long startOffset) throws IOException {
+    return new ColumnarList<T>(source, columns, startOffset);
+  }
+
+  public long getEndOffset() {
+    return endOffset;
+  }
+
+  @Override
+  public T get(final int i) {
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException(i + ", size=" + size);
+    }
+    final ByteBuffer[] fields = new ByteBuffer[columnData.length];
+    for (int c = 0; c < fields.length; ++c) {
+      fields[c] = columnData[c].duplicate();
+      fields[c].position(i * widths[c]);
+    }
+    return columns.read(fields);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns a read-only view of a whole column, e.g. for asIntBuffer().
+   */
+  public ByteBuffer getColumn(final int column) {
+    return columnData[column].asReadOnlyBuffer();
+  }
+
+  public byte getByte(final int column, final int i) {
+    return columnData[column].get(i * widths[column]);
+  }
+
+  public short getShort(final int column, final int i) {
+    return columnData[column].getShort(i * widths[column]);
+  }
+
+  public int getInt(final int column, final int i) {
+    return columnData[column].getInt(i * widths[column]);
+  }
+
+  public long getLong(final int column, final int i) {
+    return columnData[column].getLong(i * widths[column]);
+  }
+
+  public float getFloat(final int column, final int i) {
+    return columnData[column].getFloat(i * widths[column]);
+  }
+
+  public double getDouble(final int column, final int i) {
+    return columnData[column].getDouble(i * widths[column]);
+  }
+
+  /**
+   * Writes list one column at a time, making one pass over list per column
+   * so memory use doesn't grow with the list.
+   */
+  public static <T> void write(final RandomAccessFile raf,
+      final Collection<T> list, final Columns<T> columns) throws IOException {
+    final int[] widths = columns.widths();
+    final ByteBuffer header = ByteBuffer.allocate(8 + widths.length * 4);
+    header.putInt(list.size());
+    header.putInt(widths.length);
+    header.asIntBuffer().put(widths);
+    raf.write(header.array());
+
+    final ByteBuffer[] fields = new ByteBuffer[widths.length];
+    for (int c = 0; c < widths.length; ++c) {
+      fields[c] = ByteBuffer.allocate(widths[c]);
+    }
+    final ByteBuffer out = ByteBuffer.allocate(Math.max(WRITE_BUFFER_SIZE,
+        maxWidth(widths)));
+    for (int c = 0; c < widths.length; ++c) {
+      int count = 0;
+      for (final T t : list) {
+        for (final ByteBuffer field : fields) {
+          field.clear();
+        }
+        columns.write(t, fields);
+        if (fields[c].position() != widths[c]) {
+          throw new RuntimeException("Wrote " + fields[c].position()
+              + " bytes to column " + c + ", should have written "
+              + widths[c]);
+        }
+        if (out.remaining() < widths[c]) {
+          raf.write(out.array(), 0, out.position());
+          out.clear();
+        }
+        out.put(fields[c].array());
+        ++count;
+      }
+      if (count != list.size()) {
+        throw new IllegalStateException("Wrote " + count + " elements, expected " + list.size());
+      }
+      raf.write(out.array(), 0, out.position());
+      out.clear();
+    }
+  }
+
+  private static int maxWidth(final int[] widths) {
+    int result = 0;
+    for (final int width : widths) {
+      result = Math.max(result, width);
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,110 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ColumnarListTest extends TestCase {
+
+  static final class Entry {
+    final int id;
+    final long frequency;
+    final short rank;
+
+    Entry(final int id, final long frequency, final short rank) {
+      this.id = id;
+      this.frequency = frequency;
+      this.rank = rank;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      final Entry that = (Entry) o;
+      return id == that.id && frequency == that.frequency && rank == that.rank;
+    }
+
+    @Override
+    public int hashCode() {
+      return id;
+    }
+
+    @Override
+    public String toString() {
+      return id + ":" + frequency + ":" + rank;
+    }
+  }
+
+  static final ColumnarList.Columns<Entry> COLUMNS = new ColumnarList.Columns<Entry>() {
+    @Override
+    public int[] widths() {
+      return new int[] { 4, 8, 2 };
+    }
+
+    @Override
+    public void write(final Entry t, final ByteBuffer[] fields) {
+      fields[0].putInt(t.id);
+      fields[1].putLong(t.frequency);
+      fields[2].putShort(t.rank);
+    }
+
+    @Override
+    public Entry read(final ByteBuffer[] fields) {
+      return new Entry(fields[0].getInt(), fields[1].getLong(),
+          fields[2].getShort());
+    }
+  };
+
+  public void testColumnarList() throws IOException {
+    final File file = File.createTempFile("asdf", "asdf");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    final List<Entry> list = new ArrayList<Entry>();
+    for (int i = 0; i < 10000; ++i) {
+      list.add(new Entry(i, i * 1000L * 1000L * 1000L, (short) (i % 7)));
+    }
+    raf.writeUTF("Hello World!");
+    ColumnarList.write(raf, list, COLUMNS);
+    ColumnarList.write(raf, Collections.<Entry>emptyList(), COLUMNS);
+    raf.writeUTF("Goodbye World!");
+
+    for (final ByteSource source : Arrays.<ByteSource>asList(
+        MappedByteSource.map(raf), ChannelByteSource.create(raf))) {
+      final ColumnarList<Entry> copy = ColumnarList.create(source, COLUMNS,
+          "Hello World!".length() + 2);
+      assertEquals(list, copy);
+      assertEquals(9999, copy.getInt(0, 9999));
+      assertEquals(9999L * 1000L * 1000L * 1000L, copy.getLong(1, 9999));
+      assertEquals(3, copy.getShort(2, 10));
+      assertEquals(1234, copy.getColumn(0).asIntBuffer().get(1234));
+
+      final ColumnarList<Entry> empty = ColumnarList.create(source, COLUMNS,
+          copy.getEndOffset());
+      assertEquals(0, empty.size());
+      raf.seek(empty.getEndOffset());
+      assertEquals("Goodbye World!", raf.readUTF());
+    }
+  }
+
+}
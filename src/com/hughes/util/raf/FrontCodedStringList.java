@@ -0,0 +1,318 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * A list of strings, front coded: the strings are stored in blocks of
+ * blockSize, each starting with its first string whole, and continuing with
+ * the rest as the number of leading bytes shared with the string before and
+ * the bytes after those. Strings are encoded in modified UTF-8, like
+ * writeUTF(), so any String, unpaired surrogates included, reads back equal.
+ * Neighbours in a sorted list of words share long prefixes, so this takes a
+ * fraction of the space of writing each in full.
+ * get(i) decodes at most blockSize strings, and binarySearch() decodes only
+ * the first string of each block it probes, and the block it ends in.
+ * 
+ * Format: int size, int blockSize, long blockStartsOffset, the blocks, then
+ * int[numBlocks + 1] blockStarts, relative to the first block, the last being
+ * the end of the blocks. A block is the varint length and bytes of its first
+ * string, then for each other string, the varint shared length, varint suffix
+ * length, and suffix.
+ */
+public class FrontCodedStringList extends AbstractList<String> implements
+    RandomAccess {
+
+  public static final int DEFAULT_BLOCK_SIZE = 16;
+  private static final int HEADER_BYTES = 16;
+
+  final int size;
+  final int blockSize;
+  final int numBlocks;
+  private final ByteBuffer blocks;
+  private final IntBuffer blockStarts;
+  final long endOffset;
+
+  public FrontCodedStringList(final ByteSource source, final long startOffset)
+      throws IOException {
+    final ByteBuffer header = source.read(startOffset, HEADER_BYTES);
+    size = header.getInt();
+    blockSize = header.getInt();
+    final long blockStartsOffset = header.getLong();
+    numBlocks = (size + blockSize - 1) / blockSize;
+    blocks = source.read(startOffset + HEADER_BYTES,
+        (int) (blockStartsOffset - startOffset - HEADER_BYTES));
+    blockStarts = source.read(blockStartsOffset, (numBlocks + 1) * 4)
+        .asIntBuffer();
+    endOffset = blockStartsOffset + (numBlocks + 1) * 4;
+  }
+
+  public static FrontCodedStringList create(final ByteSource source,
+      final long startOffset) throws IOException {
+    return new FrontCodedStringList(source, startOffset);
+  }
+
+  public static FrontCodedStringList create(final RandomAccessFile raf,
+      final long startOffset) throws IOException {
+    return new FrontCodedStringList(new RAFByteSource(raf), startOffset);
+  }
+
+  public long getEndOffset() {
+    return endOffset;
+  }
+
+  /**
+   * Decodes the strings of a block one at a time.
+   */
+  private final class Cursor {
+    private final ByteBuffer in = blocks.duplicate();
+    private byte[] bytes = new byte[64];
+    private int length;
+    // The index of the string in bytes.
+    int index;
+
+    void seekBlock(final int block) {
+      in.position(blockStarts.get(block));
+      index = block * blockSize;
+      read(0);
+    }
+
+    /**
+     * Moves to the next string, which must be in the same block.
+     */
+    void next() {
+      ++index;
+      read((int) VarInt.read(in));
+    }
+
+    private void read(final int shared) {
+      final int suffix = (int) VarInt.read(in);
+      if (shared + suffix > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(shared + suffix,
+            bytes.length * 2));
+      }
+      in.get(bytes, shared, suffix);
+      length = shared + suffix;
+    }
+
+    String string() {
+      return decode(bytes, length);
+    }
+  }
+
+  @Override
+  public String get(final int i) {
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException(i + ", size=" + size);
+    }
+    final Cursor cursor = new Cursor();
+    cursor.seekBlock(i / blockSize);
+    while (cursor.index < i) {
+      cursor.next();
+    }
+    return cursor.string();
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Decodes each block once, rather than once per element as get() would.
+   */
+  @Override
+  public Iterator<String> iterator() {
+    return new Iterator<String>() {
+      private final Cursor cursor = new Cursor();
+      private int next;
+
+      @Override
+      public boolean hasNext() {
+        return next < size;
+      }
+
+      @Override
+      public String next() {
+        if (next >= size) {
+          throw new NoSuchElementException();
+        }
+        if (next % blockSize == 0) {
+          cursor.seekBlock(next / blockSize);
+        } else {
+          cursor.next();
+        }
+        ++next;
+        return cursor.string();
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Binary searches a list sorted by comparator for key, first among the
+   * first strings of the blocks, then through the one block key can be in.
+   * Returns the index of a matching string or, as with
+   * Collections.binarySearch, (-(insertion point) - 1).
+   */
+  public int binarySearch(final String key,
+      final Comparator<? super String> comparator) {
+    final Cursor cursor = new Cursor();
+    int low = 0;
+    int high = numBlocks - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      cursor.seekBlock(mid);
+      final int comparison = comparator.compare(cursor.string(), key);
+      if (comparison < 0) {
+        low = mid + 1;
+      } else if (comparison > 0) {
+        high = mid - 1;
+      } else {
+        return cursor.index;
+      }
+    }
+    // high is now the last block starting before key.
+    if (high < 0) {
+      return -1;
+    }
+    cursor.seekBlock(high);
+    final int blockEnd = Math.min(size, (high + 1) * blockSize);
+    while (cursor.index + 1 < blockEnd) {
+      cursor.next();
+      final int comparison = comparator.compare(cursor.string(), key);
+      if (comparison == 0) {
+        return cursor.index;
+      } else if (comparison > 0) {
+        return -(cursor.index + 1);
+      }
+    }
+    return -(blockEnd + 1);
+  }
+
+  /**
+   * Same, for a list in natural String order.
+   */
+  public int binarySearch(final String key) {
+    return binarySearch(key, new Comparator<String>() {
+      @Override
+      public int compare(final String s1, final String s2) {
+        return s1.compareTo(s2);
+      }
+    });
+  }
+
+  static byte[] encode(final String s) {
+    final ByteBuffer out = ByteBuffer.allocate(s.length() * 3);
+    ModifiedUtf8.encode(s, out);
+    return Arrays.copyOf(out.array(), out.position());
+  }
+
+  static String decode(final byte[] bytes, final int length) {
+    try {
+      return ModifiedUtf8.decode(ByteBuffer.wrap(bytes, 0, length), length);
+    } catch (UTFDataFormatException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public static void write(final RandomAccessFile raf,
+      final Collection<String> strings) throws IOException {
+    write(raf, strings.iterator(), DEFAULT_BLOCK_SIZE);
+  }
+
+  /**
+   * Same, for any number of strings. They're compressed best, and can only
+   * be binary searched, when they're sorted.
+   */
+  public static void write(final RandomAccessFile raf,
+      final Iterator<String> strings, final int blockSize) throws IOException {
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("blockSize=" + blockSize);
+    }
+    final long startOffset = raf.getFilePointer();
+    raf.writeInt(0); // placeholder for size
+    raf.writeInt(blockSize);
+    raf.writeLong(0); // placeholder for blockStartsOffset
+
+    final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+    final DataOutputStream blockOut = new DataOutputStream(blockBytes);
+    int[] blockStarts = new int[16];
+    int numBlocks = 0;
+    int blocksSize = 0;
+    int size = 0;
+    byte[] previous = new byte[0];
+    while (strings.hasNext()) {
+      final byte[] bytes = encode(strings.next());
+      if (size % blockSize == 0) {
+        if (blockBytes.size() > 0) {
+          raf.write(blockBytes.toByteArray());
+          blocksSize += blockBytes.size();
+          blockBytes.reset();
+        }
+        if (numBlocks + 1 == blockStarts.length) {
+          blockStarts = Arrays.copyOf(blockStarts, blockStarts.length * 2);
+        }
+        blockStarts[numBlocks++] = blocksSize;
+        VarInt.write(blockOut, bytes.length);
+        blockOut.write(bytes);
+      } else {
+        int shared = 0;
+        while (shared < bytes.length && shared < previous.length
+            && bytes[shared] == previous[shared]) {
+          ++shared;
+        }
+        VarInt.write(blockOut, shared);
+        VarInt.write(blockOut, bytes.length - shared);
+        blockOut.write(bytes, shared, bytes.length - shared);
+      }
+      previous = bytes;
+      ++size;
+    }
+    raf.write(blockBytes.toByteArray());
+    blocksSize += blockBytes.size();
+    blockStarts[numBlocks] = blocksSize;
+
+    final long blockStartsOffset = raf.getFilePointer();
+    final ByteBuffer startsBytes = ByteBuffer.allocate((numBlocks + 1) * 4);
+    startsBytes.asIntBuffer().put(blockStarts, 0, numBlocks + 1);
+    raf.write(startsBytes.array());
+    final long endOffset = raf.getFilePointer();
+    raf.seek(startOffset);
+    raf.writeInt(size);
+    raf.seek(startOffset + 8);
+    raf.writeLong(blockStartsOffset);
+    raf.seek(endOffset);
+  }
+
+}
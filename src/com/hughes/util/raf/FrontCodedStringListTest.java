@@ -0,0 +1,118 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+public class FrontCodedStringListTest extends TestCase {
+
+  public void testFrontCodedStringList() throws IOException {
+    final File file = File.createTempFile("asdf", "asdf");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    final Random random = new Random(0);
+    final TreeSet<String> words = new TreeSet<String>();
+    final String[] stems = { "abbreviat", "Haus", "hausier", "\u00fcber", "\u00fcberschreit", "\u65e5\u672c" };
+    final String[] endings = { "", "e", "en", "ed", "ion", "ions", "es", "er", "ung", "\u8a9e" };
+    while (words.size() < 5000) {
+      words.add(stems[random.nextInt(stems.length)] + random.nextInt(1000)
+          + endings[random.nextInt(endings.length)]);
+    }
+    final List<String> list = new ArrayList<String>(words);
+
+    raf.writeUTF("Hello World!");
+    final long start = raf.getFilePointer();
+    FrontCodedStringList.write(raf, list);
+    final long end = raf.getFilePointer();
+    FrontCodedStringList.write(raf, list.iterator(), 1);
+    final long emptyStart = raf.getFilePointer();
+    FrontCodedStringList.write(raf, Collections.<String>emptyList());
+    raf.writeUTF("Goodbye World!");
+
+    long utfBytes = 0;
+    for (final String word : list) {
+      utfBytes += 2 + word.getBytes("UTF-8").length;
+    }
+    assertTrue(end - start < utfBytes / 2);
+
+    final FrontCodedStringList frontCoded = FrontCodedStringList.create(raf, start);
+    assertEquals(list, frontCoded);
+    assertEquals(end, frontCoded.getEndOffset());
+    for (int i = list.size() - 1; i >= 0; i -= 3) {
+      assertEquals(list.get(i), frontCoded.get(i));
+    }
+    try {
+      frontCoded.get(list.size());
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+    }
+    assertEquals(list, FrontCodedStringList.create(MappedByteSource.map(raf), end));
+
+    for (final String word : list) {
+      assertEquals(Collections.binarySearch(list, word), frontCoded.binarySearch(word));
+      for (final String probe : new String[] { word + "0", word.substring(0, word.length() - 1), "" }) {
+        assertEquals(probe, Collections.binarySearch(list, probe), frontCoded.binarySearch(probe));
+      }
+    }
+    assertEquals(-(list.size() + 1), frontCoded.binarySearch("\uffff"));
+
+    final FrontCodedStringList empty = FrontCodedStringList.create(raf, emptyStart);
+    assertTrue(empty.isEmpty());
+    assertEquals(-1, empty.binarySearch("a"));
+    raf.seek(empty.getEndOffset());
+    assertEquals("Goodbye World!", raf.readUTF());
+  }
+
+  public void testUnpairedSurrogates() throws IOException {
+    final File file = File.createTempFile("asdf", "asdf");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    final List<String> list = Arrays.asList("a", "b\ud800c", "b\ud800d",
+        "b\udc00", "d\u0000e", "\ud83d\ude00");
+    FrontCodedStringList.write(raf, list.iterator(), 2);
+    assertEquals(list, FrontCodedStringList.create(raf, 0));
+  }
+
+  public void testComparator() throws IOException {
+    final File file = File.createTempFile("asdf", "asdf");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    final List<String> list = new ArrayList<String>();
+    for (int i = 0; i < 300; ++i) {
+      list.add((i % 2 == 0 ? "Word" : "word") + i);
+    }
+    Collections.sort(list, String.CASE_INSENSITIVE_ORDER);
+    FrontCodedStringList.write(raf, list.iterator(), 7);
+    final FrontCodedStringList frontCoded = FrontCodedStringList.create(raf, 0);
+    assertEquals(list, frontCoded);
+    for (int i = 0; i < list.size(); ++i) {
+      assertEquals(i, frontCoded.binarySearch(list.get(i).toUpperCase(), String.CASE_INSENSITIVE_ORDER));
+    }
+    assertEquals(Collections.binarySearch(list, "WORD15x", String.CASE_INSENSITIVE_ORDER),
+        frontCoded.binarySearch("WORD15x", String.CASE_INSENSITIVE_ORDER));
+  }
+
+}
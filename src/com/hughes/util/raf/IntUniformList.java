@@ -0,0 +1,105 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A UniformRAFList of ints, read without boxing or per-element I/O through an
+ * IntBuffer that views the data. Opened on a MappedByteSource the view is
+ * the mapping itself; other sources read the data into the heap once.
+ */
+public class IntUniformList extends AbstractList<Integer> implements RandomAccess {
+
+  static final int DATUM_SIZE = 4;
+
+  private final IntBuffer values;
+  final long endOffset;
+
+  public IntUniformList(final ByteSource source, final long startOffset)
+      throws IOException {
+    final ByteBuffer header = source.read(startOffset, 8);
+    final int size = header.getInt();
+    final int datumSize = header.getInt();
+    if (datumSize != DATUM_SIZE) {
+      throw new IOException("Expected datumSize " + DATUM_SIZE + ", got "
+          + datumSize);
+    }
+    values = source.read(startOffset + 8, size * DATUM_SIZE).asIntBuffer();
+    endOffset = startOffset + 8 + (long) size * DATUM_SIZE;
+  }
+
+  public static IntUniformList create(final ByteSource source,
+      final long startOffset) throws IOException {
+    return new IntUniformList(source, startOffset);
+  }
+
+  public static IntUniformList create(final RandomAccessFile raf,
+      final long startOffset) throws IOException {
+    return new IntUniformList(new RAFByteSource(raf), startOffset);
+  }
+
+  public long getEndOffset() {
+    return endOffset;
+  }
+
+  public int getInt(final int i) {
+    return values.get(i);
+  }
+
+  @Override
+  public Integer get(final int i) {
+    return values.get(i);
+  }
+
+  @Override
+  public int size() {
+    return values.limit();
+  }
+
+  /**
+   * Copies length values starting at from into dest.
+   */
+  public void getInts(final int from, final int[] dest, final int offset,
+      final int length) {
+    final IntBuffer view = values.duplicate();
+    view.position(from);
+    view.get(dest, offset, length);
+  }
+
+  public int[] toIntArray() {
+    final int[] result = new int[size()];
+    getInts(0, result, 0, result.length);
+    return result;
+  }
+
+  /**
+   * Writes values in the UniformRAFList format, with one bulk write.
+   */
+  public static void write(final RandomAccessFile raf, final int[] values)
+      throws IOException {
+    final ByteBuffer bytes = ByteBuffer.allocate(8 + values.length * DATUM_SIZE);
+    bytes.putInt(values.length);
+    bytes.putInt(DATUM_SIZE);
+    bytes.asIntBuffer().put(values);
+    raf.write(bytes.array());
+  }
+
+}
@@ -0,0 +1,105 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A UniformRAFList of longs, read without boxing or per-element I/O through a
+ * LongBuffer that views the data. Opened on a MappedByteSource the view is
+ * the mapping itself; other sources read the data into the heap once.
+ */
+public class LongUniformList extends AbstractList<Long> implements RandomAccess {
+
+  static final int DATUM_SIZE = 8;
+
+  private final LongBuffer values;
+  final long endOffset;
+
+  public LongUniformList(final ByteSource source, final long startOffset)
+      throws IOException {
+    final ByteBuffer header = source.read(startOffset, 8);
+    final int size = header.getInt();
+    final int datumSize = header.getInt();
+    if (datumSize != DATUM_SIZE) {
+      throw new IOException("Expected datumSize " + DATUM_SIZE + ", got "
+          + datumSize);
+    }
+    values = source.read(startOffset + 8, size * DATUM_SIZE).asLongBuffer();
+    endOffset = startOffset + 8 + (long) size * DATUM_SIZE;
+  }
+
+  public static LongUniformList create(final ByteSource source,
+      final long startOffset) throws IOException {
+    return new LongUniformList(source, startOffset);
+  }
+
+  public static LongUniformList create(final RandomAccessFile raf,
+      final long startOffset) throws IOException {
+    return new LongUniformList(new RAFByteSource(raf), startOffset);
+  }
+
+  public long getEndOffset() {
+    return endOffset;
+  }
+
+  public long getLong(final int i) {
+    return values.get(i);
+  }
+
+  @Override
+  public Long get(final int i) {
+    return values.get(i);
+  }
+
+  @Override
+  public int size() {
+    return values.limit();
+  }
+
+  /**
+   * Copies length values starting at from into dest.
+   */
+  public void getLongs(final int from, final long[] dest, final int offset,
+      final int length) {
+    final LongBuffer view = values.duplicate();
+    view.position(from);
+    view.get(dest, offset, length);
+  }
+
+  public long[] toLongArray() {
+    final long[] result = new long[size()];
+    getLongs(0, result, 0, result.length);
+    return result;
+  }
+
+  /**
+   * Writes values in the UniformRAFList format, with one bulk write.
+   */
+  public static void write(final RandomAccessFile raf, final long[] values)
+      throws IOException {
+    final ByteBuffer bytes = ByteBuffer.allocate(8 + values.length * DATUM_SIZE);
+    bytes.putInt(values.length);
+    bytes.putInt(DATUM_SIZE);
+    bytes.asLongBuffer().put(values);
+    raf.write(bytes.array());
+  }
+
+}
@@ -0,0 +1,98 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A ByteSource that maps the whole file into memory. Files larger than 2GB
+ * are mapped as several segments; reads that fall inside one segment return
+ * a view of the mapping, and the rare read that straddles two segments is
+ * copied to the heap.
+ */
+public final class MappedByteSource implements ByteSource {
+
+  static final int SEGMENT_BITS = 30;
+  static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+
+  private final int segmentBits;
+  private final MappedByteBuffer[] segments;
+  private final long length;
+
+  public MappedByteSource(final FileChannel channel) throws IOException {
+    this(channel, SEGMENT_BITS);
+  }
+
+  MappedByteSource(final FileChannel channel, final int segmentBits)
+      throws IOException {
+    this.segmentBits = segmentBits;
+    length = channel.size();
+    final long segmentSize = 1L << segmentBits;
+    final int numSegments = (int) ((length + segmentSize - 1) >>> segmentBits);
+    segments = new MappedByteBuffer[numSegments];
+    for (int s = 0; s < numSegments; ++s) {
+      final long start = s * segmentSize;
+      segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+          Math.min(segmentSize, length - start));
+    }
+  }
+
+  public static MappedByteSource map(final RandomAccessFile raf)
+      throws IOException {
+    return new MappedByteSource(raf.getChannel());
+  }
+
+  @Override
+  public ByteBuffer read(final long position, final int length)
+      throws IOException {
+    if (position < 0 || length < 0 || position + length > this.length) {
+      throw new EOFException("Read of " + length + " bytes at " + position
+          + ", file length=" + this.length);
+    }
+    if (length == 0) {
+      return ByteBuffer.allocate(0);
+    }
+    int segment = (int) (position >>> segmentBits);
+    int offset = (int) (position & ((1L << segmentBits) - 1));
+    if ((long) offset + length <= segments[segment].capacity()) {
+      final ByteBuffer view = segments[segment].duplicate();
+      view.position(offset);
+      view.limit(offset + length);
+      return view.slice();
+    }
+    final ByteBuffer result = ByteBuffer.allocate(length);
+    while (result.hasRemaining()) {
+      final ByteBuffer view = segments[segment].duplicate();
+      view.position(offset);
+      view.limit(Math.min(view.capacity(), offset + result.remaining()));
+      result.put(view);
+      ++segment;
+      offset = 0;
+    }
+    result.flip();
+    return result;
+  }
+
+  @Override
+  public long length() {
+    return length;
+  }
+
+}
@@ -0,0 +1,75 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.hughes.util.raf;
+
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
+/**
+ * The modified UTF-8 of DataOutput.writeUTF(), without its length: every char
+ * is encoded on its own, NUL as two bytes and surrogates as three, so any
+ * String, unpaired surrogates included, reads back equal.
+ */
+final class ModifiedUtf8 {
+
+  private ModifiedUtf8() {
+  }
+
+  /**
+   * Writes s at out's position. Throws BufferOverflowException if out doesn't
+   * have room, which is never the case with 3 bytes per char.
+   */
+  static void encode(final String s, final ByteBuffer out) {
+    for (int i = 0; i < s.length(); ++i) {
+      final char c = s.charAt(i);
+      if (c != 0 && c < 0x80) {
+        out.put((byte) c);
+      } else if (c < 0x800) {
+        out.put((byte) (0xc0 | c >> 6));
+        out.put((byte) (0x80 | (c & 0x3f)));
+      } else {
+        out.put((byte) (0xe0 | c >> 12));
+        out.put((byte) (0x80 | (c >> 6 & 0x3f)));
+        out.put((byte) (0x80 | (c & 0x3f)));
+      }
+    }
+  }
+
+  /**
+   * Reads the string in the length bytes at in's position, and leaves the
+   * position after them.
+   */
+  static String decode(final ByteBuffer in, final int length)
+      throws UTFDataFormatException {
+    final char[] chars = new char[length];
+    int numChars = 0;
+    final int end = in.position() + length;
+    while (in.position() < end) {
+      final int b = in.get() & 0xff;
+      if (b < 0x80) {
+        chars[numChars++] = (char) b;
+      } else if ((b & 0xe0) == 0xc0 && in.position() < end) {
+        chars[numChars++] = (char) ((b & 0x1f) << 6 | (in.get() & 0x3f));
+      } else if ((b & 0xf0) == 0xe0 && in.position() + 1 < end) {
+        chars[numChars++] = (char) ((b & 0x0f) << 12 | (in.get() & 0x3f) << 6
+            | (in.get() & 0x3f));
+      } else {
+        throw new UTFDataFormatException("Bad modified UTF-8 at "
+            + (in.position() - 1));
+      }
+    }
+    return new String(chars, 0, numChars);
+  }
+
+}
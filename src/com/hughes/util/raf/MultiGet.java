@@ -0,0 +1,63 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf;
+
+import java.util.Arrays;
+
+/**
+ * Helpers for the lists' getAll(int[]) methods, which look elements up in
+ * file order and hand them back in request order.
+ */
+public final class MultiGet {
+
+  /**
+   * Returns the requests sorted by index, each packed as the index in the
+   * high bits and its position in indices in the low bits.
+   */
+  public static long[] sortByIndex(final int[] indices, final int size) {
+    final long[] requests = new long[indices.length];
+    for (int p = 0; p < indices.length; ++p) {
+      if (indices[p] < 0 || indices[p] >= size) {
+        throw new IndexOutOfBoundsException(indices[p] + ", size=" + size);
+      }
+      requests[p] = ((long) indices[p] << 32) | p;
+    }
+    Arrays.sort(requests);
+    return requests;
+  }
+
+  public static int index(final long request) {
+    return (int) (request >>> 32);
+  }
+
+  public static int position(final long request) {
+    return (int) request;
+  }
+
+  /**
+   * Returns the end of the run of requests starting at start whose indices
+   * are at most maxGap apart, so that they can be read together.
+   */
+  public static int runEnd(final long[] requests, final int start,
+      final int maxGap) {
+    int end = start + 1;
+    while (end < requests.length
+        && index(requests[end]) - index(requests[end - 1]) <= maxGap) {
+      ++end;
+    }
+    return end;
+  }
+
+}
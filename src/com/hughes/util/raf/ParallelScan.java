@@ -0,0 +1,97 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Visits every element of a SplittableList, scanning its pieces in parallel.
+ */
+public final class ParallelScan {
+
+  // Pieces per thread, so that uneven pieces still balance out.
+  private static final int PIECES_PER_THREAD = 4;
+
+  public interface Visitor<T> {
+    /**
+     * Called once for each element, concurrently from several threads but
+     * in index order within each piece.
+     */
+    void visit(int index, T t) throws Exception;
+  }
+
+  private ParallelScan() {
+  }
+
+  /**
+   * Splits list into up to PIECES_PER_THREAD * parallelism pieces, submits
+   * them all to executor at once, and returns when every element has been
+   * visited. parallelism only sets how many pieces there are; how many run
+   * at a time is up to executor. The first failure is rethrown, wrapped in a
+   * RuntimeException, after the other pieces finish.
+   */
+  public static <T> void forEach(final SplittableList<T> list,
+      final ExecutorService executor, final int parallelism,
+      final Visitor<? super T> visitor) throws InterruptedException {
+    final int[] bounds = list.split(parallelism * PIECES_PER_THREAD);
+    final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (int p = 0; p + 1 < bounds.length; ++p) {
+      final int from = bounds[p];
+      final int to = bounds[p + 1];
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          final Iterator<T> iterator = list.iterator(from, to);
+          for (int i = from; i < to; ++i) {
+            visitor.visit(i, iterator.next());
+          }
+          return null;
+        }
+      }));
+    }
+    Throwable failure = null;
+    for (final Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      }
+    }
+    if (failure != null) {
+      throw new RuntimeException(failure);
+    }
+  }
+
+  /**
+   * Cuts [0, size) into up to maxPieces ranges of equal length.
+   */
+  static int[] evenSplit(final int size, final int maxPieces) {
+    final int pieces = Math.max(1, Math.min(maxPieces, size));
+    final int[] bounds = new int[pieces + 1];
+    for (int p = 0; p <= pieces; ++p) {
+      bounds[p] = (int) ((long) size * p / pieces);
+    }
+    return bounds;
+  }
+
+}
@@ -0,0 +1,49 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * A ByteSource that seeks and reads under the RandomAccessFile's monitor,
+ * like the lists that read from the RandomAccessFile directly.
+ */
+public final class RAFByteSource implements ByteSource {
+
+  private final RandomAccessFile raf;
+
+  public RAFByteSource(final RandomAccessFile raf) {
+    this.raf = raf;
+  }
+
+  @Override
+  public ByteBuffer read(final long position, final int length)
+      throws IOException {
+    final byte[] bytes = new byte[length];
+    synchronized (raf) {
+      raf.seek(position);
+      raf.readFully(bytes);
+    }
+    return ByteBuffer.wrap(bytes);
+  }
+
+  @Override
+  public long length() throws IOException {
+    return raf.length();
+  }
+
+}
@@ -14,52 +14,292 @@
 
 package com.hughes.util.raf;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
 import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.RandomAccess;
+import java.util.concurrent.Callable;
 
-public class RAFList<T> extends AbstractList<T> implements RandomAccess {
+/**
+ * A list whose elements are written one after the other with a table of
+ * contents (TOC) giving where each one starts.
+ * 
+ * The original format stores the size followed by one absolute long per
+ * element plus the end offset, then the data. The compact format (see
+ * writeCompact) starts with COMPACT_MAGIC in place of the size, stores the
+ * data first, and follows it with a TOC that holds an absolute offset for
+ * every samplingInterval'th element and varint element lengths in between.
+ * Looking up an element still costs a fixed number of reads: the two samples
+ * around it, the lengths between them, and the element itself.
+ * 
+ * Either TOC can also be loaded into memory (see TocMode), after which a
+ * lookup is a single read of the element.
+ */
+public class RAFList<T> extends AbstractList<T> implements RandomAccess,
+    SplittableList<T> {
 
+  private static final int INT_BYTES = Integer.SIZE / 8;
   private static final int LONG_BYTES = Long.SIZE / 8;
 
+  // Never a valid size, so it tells the two formats apart.
+  static final int COMPACT_MAGIC = -0x52414631;
+  public static final int DEFAULT_SAMPLING_INTERVAL = 32;
+  // Absolute data offset and position of the block's lengths.
+  private static final int SAMPLE_BYTES = LONG_BYTES + INT_BYTES;
+  // Elements read at a time by iterator().
+  private static final int ITERATOR_BATCH_SIZE = 1024;
+  // getAll() reads requested elements this close together with one read.
+  private static final int COALESCE_GAP = 16;
+
   final RandomAccessFile raf;
   final RAFListSerializer<T> serializer;
+  // Set instead of raf and serializer when reading through a ByteSource.
+  final BufferSerializer<T> sourceSerializer;
+  // Where the TOC is read from, in both modes.
+  final ByteSource source;
   final long tocOffset;
   final int size;
   final long endOffset;
+  // Compact format only; 0 for the original format.
+  final int samplingInterval;
+  final long lengthsOffset;
+  // Element starts followed by the end of the data, once the TOC is loaded.
+  private volatile LongBuffer loadedStarts;
 
   public RAFList(final RandomAccessFile raf,
       final RAFListSerializer<T> serializer, final long startOffset)
       throws IOException {
+    this(raf, serializer, startOffset, TocMode.ON_DEMAND);
+  }
+
+  /**
+   * The TOC is read under raf's lock, which puts the file pointer back after
+   * each read, so a BACKGROUND load can't move it under the caller after this
+   * returns.
+   */
+  public RAFList(final RandomAccessFile raf,
+      final RAFListSerializer<T> serializer, final long startOffset,
+      final TocMode tocMode) throws IOException {
+    this(raf, serializer, null, keepingFilePointer(raf), startOffset,
+        tocMode);
     synchronized (raf) {
-      this.raf = raf;
-      this.serializer = serializer;
-      raf.seek(startOffset);
-      size = raf.readInt();
-      this.tocOffset = raf.getFilePointer();
-
-      raf.seek(tocOffset + size * LONG_BYTES);
-      endOffset = raf.readLong();
       raf.seek(endOffset);
     }
   }
 
+  // Not raf's channel: a read on it that's interrupted closes the file for
+  // everyone sharing it.
+  private static ByteSource keepingFilePointer(final RandomAccessFile raf) {
+    final ByteSource source = new RAFByteSource(raf);
+    return new ByteSource() {
+      @Override
+      public ByteBuffer read(final long position, final int length)
+          throws IOException {
+        synchronized (raf) {
+          final long filePointer = raf.getFilePointer();
+          try {
+            return source.read(position, length);
+          } finally {
+            raf.seek(filePointer);
+          }
+        }
+      }
+
+      @Override
+      public long length() throws IOException {
+        return source.length();
+      }
+    };
+  }
+
+  /**
+   * Reads the list through source, without locking, so any number of threads
+   * can call get() concurrently.
+   */
+  public RAFList(final ByteSource source, final Serializer<T> serializer,
+      final long startOffset) throws IOException {
+    this(source, serializer, startOffset, TocMode.ON_DEMAND);
+  }
+
+  public RAFList(final ByteSource source, final Serializer<T> serializer,
+      final long startOffset, final TocMode tocMode) throws IOException {
+    this(source, BufferSerializer.Wrapper.wrap(serializer), startOffset,
+        tocMode);
+  }
+
+  /**
+   * Same, but elements are decoded straight from the bytes read from source.
+   */
+  public RAFList(final ByteSource source,
+      final BufferSerializer<T> serializer, final long startOffset,
+      final TocMode tocMode) throws IOException {
+    this(null, null, serializer, source, startOffset, tocMode);
+  }
+
+  private RAFList(final RandomAccessFile raf,
+      final RAFListSerializer<T> serializer,
+      final BufferSerializer<T> sourceSerializer, final ByteSource source,
+      final long startOffset, final TocMode tocMode) throws IOException {
+    this.raf = raf;
+    this.serializer = serializer;
+    this.sourceSerializer = sourceSerializer;
+    this.source = source;
+    final int sizeOrMagic = source.read(startOffset, INT_BYTES).getInt();
+    if (sizeOrMagic >= 0) {
+      size = sizeOrMagic;
+      tocOffset = startOffset + INT_BYTES;
+      endOffset = source.read(tocOffset + (long) size * LONG_BYTES, LONG_BYTES)
+          .getLong();
+      samplingInterval = 0;
+      lengthsOffset = 0;
+    } else if (sizeOrMagic == COMPACT_MAGIC) {
+      final ByteBuffer header = source.read(startOffset + INT_BYTES,
+          2 * INT_BYTES + LONG_BYTES);
+      size = header.getInt();
+      samplingInterval = header.getInt();
+      tocOffset = header.getLong();
+      lengthsOffset = tocOffset + (long) (numBlocks() + 1) * SAMPLE_BYTES;
+      final ByteBuffer lastSample = source.read(
+          tocOffset + (long) numBlocks() * SAMPLE_BYTES, SAMPLE_BYTES);
+      lastSample.getLong();
+      endOffset = lengthsOffset + lastSample.getInt();
+    } else {
+      throw new IOException("Unknown RAFList format: " + sizeOrMagic);
+    }
+
+    if (tocMode == TocMode.EAGER) {
+      loadedStarts = loadStarts();
+    } else if (tocMode == TocMode.BACKGROUND) {
+      TocLoader.load(new Callable<LongBuffer>() {
+        @Override
+        public LongBuffer call() throws IOException {
+          return loadedStarts = loadStarts();
+        }
+      });
+    }
+  }
+
+  private LongBuffer loadStarts() throws IOException {
+    if (samplingInterval == 0) {
+      // Without copying if the source is mapped.
+      return source.read(tocOffset, (size + 1) * LONG_BYTES).asLongBuffer();
+    }
+    return LongBuffer.wrap(getStarts(0, size));
+  }
+
+  private int numBlocks() {
+    return (size + samplingInterval - 1) / samplingInterval;
+  }
+
   public long getEndOffset() {
     return endOffset;
   }
 
+  /**
+   * Returns the start and end offsets of element i.
+   */
+  long[] getBounds(final int i) throws IOException {
+    final LongBuffer starts = loadedStarts;
+    if (starts != null) {
+      return new long[] { starts.get(i), starts.get(i + 1) };
+    }
+    if (samplingInterval == 0) {
+      final ByteBuffer toc = source.read(tocOffset + (long) i * LONG_BYTES,
+          2 * LONG_BYTES);
+      return new long[] { toc.getLong(), toc.getLong() };
+    }
+    final int block = i / samplingInterval;
+    final ByteBuffer samples = source.read(
+        tocOffset + (long) block * SAMPLE_BYTES, 2 * SAMPLE_BYTES);
+    long start = samples.getLong();
+    final int lengthsStart = samples.getInt();
+    final long nextBlockStart = samples.getLong();
+    final int lengthsEnd = samples.getInt();
+    final ByteBuffer lengths = source.read(lengthsOffset + lengthsStart,
+        lengthsEnd - lengthsStart);
+    for (int e = block * samplingInterval; e < i; ++e) {
+      start += VarInt.read(lengths);
+    }
+    // The last element of each block has no length; it runs to the next one.
+    final long end = lengths.hasRemaining() ? start + VarInt.read(lengths)
+        : nextBlockStart;
+    return new long[] { start, end };
+  }
+
+  /**
+   * Returns the start offsets of elements from through to, reading each part
+   * of the TOC only once. The start of element size is the end of the data.
+   */
+  long[] getStarts(final int from, final int to) throws IOException {
+    final long[] result = new long[to - from + 1];
+    final LongBuffer loaded = loadedStarts;
+    if (loaded != null) {
+      for (int e = from; e <= to; ++e) {
+        result[e - from] = loaded.get(e);
+      }
+      return result;
+    }
+    if (samplingInterval == 0) {
+      source.read(tocOffset + (long) from * LONG_BYTES,
+          result.length * LONG_BYTES).asLongBuffer().get(result);
+      return result;
+    }
+    if (size == 0) {
+      result[0] = tocOffset;
+      return result;
+    }
+    final int firstBlock = from / samplingInterval;
+    final int lastBlock = Math.min(to / samplingInterval, numBlocks() - 1);
+    final ByteBuffer samples = source.read(
+        tocOffset + (long) firstBlock * SAMPLE_BYTES,
+        (lastBlock - firstBlock + 2) * SAMPLE_BYTES);
+    final int lengthsStart = samples.getInt(LONG_BYTES);
+    final int lengthsEnd = samples.getInt(
+        (lastBlock - firstBlock + 1) * SAMPLE_BYTES + LONG_BYTES);
+    final ByteBuffer lengths = source.read(lengthsOffset + lengthsStart,
+        lengthsEnd - lengthsStart);
+    for (int block = firstBlock; block <= lastBlock; ++block) {
+      long start = samples.getLong();
+      samples.getInt();
+      final int first = block * samplingInterval;
+      final int last = Math.min(size, first + samplingInterval) - 1;
+      for (int e = first; e <= last; ++e) {
+        if (e >= from && e <= to) {
+          result[e - from] = start;
+        }
+        if (e < last) {
+          start += VarInt.read(lengths);
+        }
+      }
+    }
+    if (to == size) {
+      result[to - from] = samples.getLong();
+    }
+    return result;
+  }
+
   @Override
   public T get(final int i) {
     if (i < 0 || i >= size) {
       throw new IndexOutOfBoundsException(i + ", size=" + size);
     }
     try {
+      final long[] bounds = getBounds(i);
+      if (raf == null) {
+        return sourceSerializer.read(source.read(bounds[0],
+            (int) (bounds[1] - bounds[0])));
+      }
       synchronized (raf) {
-        raf.seek(tocOffset + i * LONG_BYTES);
-        final long start = raf.readLong();
-        raf.seek(start);
+        raf.seek(bounds[0]);
         return serializer.read(raf, i);
       }
     } catch (IOException e) {
@@ -67,6 +307,112 @@ public class RAFList<T> extends AbstractList<T> implements RandomAccess {
     }
   }
 
+  /**
+   * Returns elements from (inclusive) to to (exclusive), reading the TOC
+   * entries they need once and the data they occupy as one contiguous
+   * region, rather than element by element.
+   */
+  public List<T> getRange(final int from, final int to) {
+    if (from < 0 || to > size || from > to) {
+      throw new IndexOutOfBoundsException(from + ".." + to + ", size=" + size);
+    }
+    final List<T> result = new ArrayList<T>(to - from);
+    if (from == to) {
+      return result;
+    }
+    try {
+      final long[] starts = getStarts(from, to);
+      if (raf == null) {
+        final ByteBuffer data = source.read(starts[0],
+            (int) (starts[to - from] - starts[0]));
+        for (int e = from; e < to; ++e) {
+          final ByteBuffer element = data.duplicate();
+          element.limit((int) (starts[e - from + 1] - starts[0]));
+          element.position((int) (starts[e - from] - starts[0]));
+          result.add(sourceSerializer.read(element));
+        }
+        return result;
+      }
+      synchronized (raf) {
+        for (int e = from; e < to; ++e) {
+          raf.seek(starts[e - from]);
+          result.add(serializer.read(raf, e));
+        }
+      }
+      return result;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Returns the elements at indices, in the same order. The indices are
+   * visited in sorted order, and nearby ones are read together: one TOC read
+   * and one data read for each run of indices that are close together.
+   */
+  @SuppressWarnings("unchecked")
+  public List<T> getAll(final int[] indices) {
+    final long[] requests = MultiGet.sortByIndex(indices, size);
+    final Object[] result = new Object[indices.length];
+    try {
+      for (int r = 0; r < requests.length;) {
+        final int runEnd = MultiGet.runEnd(requests, r, COALESCE_GAP);
+        final int from = MultiGet.index(requests[r]);
+        final long[] starts = getStarts(from,
+            MultiGet.index(requests[runEnd - 1]) + 1);
+        if (raf == null) {
+          final ByteBuffer data = source.read(starts[0],
+              (int) (starts[starts.length - 1] - starts[0]));
+          for (; r < runEnd; ++r) {
+            final int e = MultiGet.index(requests[r]) - from;
+            final ByteBuffer element = data.duplicate();
+            element.limit((int) (starts[e + 1] - starts[0]));
+            element.position((int) (starts[e] - starts[0]));
+            result[MultiGet.position(requests[r])] = sourceSerializer.read(
+                element);
+          }
+        } else {
+          synchronized (raf) {
+            for (; r < runEnd; ++r) {
+              final int i = MultiGet.index(requests[r]);
+              raf.seek(starts[i - from]);
+              result[MultiGet.position(requests[r])] = serializer.read(raf, i);
+            }
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return Arrays.asList((T[]) result);
+  }
+
+  /**
+   * Reads the list a batch of elements at a time with getRange().
+   */
+  @Override
+  public Iterator<T> iterator() {
+    return iterator(0, size);
+  }
+
+  @Override
+  public Iterator<T> iterator(final int from, final int to) {
+    if (from < 0 || to > size || from > to) {
+      throw new IndexOutOfBoundsException(from + ".." + to + ", size=" + size);
+    }
+    return new RangeIterator<T>(from, to, ITERATOR_BATCH_SIZE) {
+      @Override
+      List<T> readRange(final int from, final int to) {
+        return getRange(from, to);
+      }
+    };
+  }
+
+  @Override
+  public int[] split(final int maxPieces) {
+    return ParallelScan.evenSplit(size, maxPieces);
+  }
+
   @Override
   public int size() {
     return size;
@@ -87,27 +433,68 @@ public class RAFList<T> extends AbstractList<T> implements RandomAccess {
     return new RAFList<T>(raf, getWrapper(serializer), startOffset);
   }
 
+  public static <T> RAFList<T> create(final RandomAccessFile raf,
+      final RAFSerializer<T> serializer, final long startOffset,
+      final TocMode tocMode) throws IOException {
+    return new RAFList<T>(raf, getWrapper(serializer), startOffset, tocMode);
+  }
+
+  /**
+   * Same, but reads through source; serializer must read the same bytes the
+   * list was written with.
+   */
+  public static <T> RAFList<T> create(final ByteSource source,
+      final Serializer<T> serializer, final long startOffset)
+      throws IOException {
+    return new RAFList<T>(source, serializer, startOffset);
+  }
+
+  public static <T> RAFList<T> create(final ByteSource source,
+      final Serializer<T> serializer, final long startOffset,
+      final TocMode tocMode) throws IOException {
+    return new RAFList<T>(source, serializer, startOffset, tocMode);
+  }
+
+  public static <T> RAFList<T> create(final ByteSource source,
+      final BufferSerializer<T> serializer, final long startOffset)
+      throws IOException {
+    return new RAFList<T>(source, serializer, startOffset, TocMode.ON_DEMAND);
+  }
+
+  public static <T> RAFList<T> create(final ByteSource source,
+      final BufferSerializer<T> serializer, final long startOffset,
+      final TocMode tocMode) throws IOException {
+    return new RAFList<T>(source, serializer, startOffset, tocMode);
+  }
+
+  /**
+   * Writes list in the original format. The data is written sequentially
+   * after space reserved for the TOC, which is filled in with a single write
+   * at the end.
+   */
   public static <T> void write(final RandomAccessFile raf,
       final Collection<T> list, final RAFListSerializer<T> serializer)
       throws IOException {
-    raf.writeInt(list.size());
-    long tocPos = raf.getFilePointer();
-    raf.seek(tocPos + LONG_BYTES * (list.size() + 1));
+    final int size = list.size();
+    raf.writeInt(size);
+    final long tocPos = raf.getFilePointer();
+    raf.seek(tocPos + LONG_BYTES * (size + 1L));
+    final long[] starts = new long[size + 1];
     int i = 0;
-    final long dataStart = raf.getFilePointer();
     for (final T t : list) {
-      final long startOffset = raf.getFilePointer();
-      raf.seek(tocPos);
-      raf.writeLong(startOffset);
-      tocPos = raf.getFilePointer();
-      raf.seek(startOffset);
+      starts[i++] = raf.getFilePointer();
       serializer.write(raf, t);
-      ++i;
+    }
+    if (i != size) {
+      throw new IllegalStateException("Wrote " + i + " elements, expected " + size);
     }
     final long endOffset = raf.getFilePointer();
+    starts[size] = endOffset;
+
+    final ByteBuffer toc = ByteBuffer.allocate(starts.length * LONG_BYTES);
+    toc.asLongBuffer().put(starts);
     raf.seek(tocPos);
-    raf.writeLong(endOffset);
-    assert dataStart == raf.getFilePointer();
+    raf.write(toc.array());
     raf.seek(endOffset);
   }
 
@@ -116,6 +503,98 @@ public class RAFList<T> extends AbstractList<T> implements RandomAccess {
       throws IOException {
     write(raf, list, getWrapper(serializer));
   }
+
+  /**
+   * Writes the elements in the compact format, with an absolute offset
+   * stored for every samplingInterval'th element. The size needn't be known
+   * up front: the data is written sequentially, the TOC follows it, and the
+   * header is filled in with one seek back at the end.
+   */
+  public static <T> void writeCompact(final RandomAccessFile raf,
+      final Iterator<T> elements, final RAFListSerializer<T> serializer,
+      final int samplingInterval) throws IOException {
+    if (samplingInterval <= 0) {
+      throw new IllegalArgumentException("samplingInterval=" + samplingInterval);
+    }
+    final long startOffset = raf.getFilePointer();
+    raf.writeInt(COMPACT_MAGIC);
+    raf.writeInt(0); // placeholder for size
+    raf.writeInt(samplingInterval);
+    raf.writeLong(0); // placeholder for tocOffset
+
+    long[] starts = new long[16];
+    int size = 0;
+    while (elements.hasNext()) {
+      if (size + 1 == starts.length) {
+        starts = Arrays.copyOf(starts, starts.length * 2);
+      }
+      starts[size++] = raf.getFilePointer();
+      serializer.write(raf, elements.next());
+    }
+    starts[size] = raf.getFilePointer();
+    writeCompactToc(raf, startOffset, starts, size, samplingInterval);
+  }
+
+  public static <T> void writeCompact(final RandomAccessFile raf,
+      final Collection<T> list, final RAFListSerializer<T> serializer,
+      final int samplingInterval) throws IOException {
+    writeCompact(raf, list.iterator(), serializer, samplingInterval);
+  }
+
+  public static <T> void writeCompact(final RandomAccessFile raf,
+      final Collection<T> list, final RAFSerializer<T> serializer)
+      throws IOException {
+    writeCompact(raf, list.iterator(), serializer);
+  }
+
+  /**
+   * Writes the elements in the compact format with the default sampling
+   * interval. There's no Iterator overload of write(): the original format
+   * needs the size up front.
+   */
+  public static <T> void writeCompact(final RandomAccessFile raf,
+      final Iterator<T> elements, final RAFSerializer<T> serializer)
+      throws IOException {
+    writeCompact(raf, elements, getWrapper(serializer),
+        DEFAULT_SAMPLING_INTERVAL);
+  }
+
+  /**
+   * Writes the TOC for size elements whose offsets are starts[0..size], the
+   * last being the end of the data, and fills in the header.
+   */
+  static void writeCompactToc(final RandomAccessFile raf,
+      final long startOffset, final long[] starts, final int size,
+      final int samplingInterval) throws IOException {
+    final long tocOffset = starts[size];
+    final int numBlocks = (size + samplingInterval - 1) / samplingInterval;
+    final ByteArrayOutputStream samplesBytes = new ByteArrayOutputStream();
+    final DataOutputStream samples = new DataOutputStream(samplesBytes);
+    final ByteArrayOutputStream lengthsBytes = new ByteArrayOutputStream();
+    final DataOutputStream lengths = new DataOutputStream(lengthsBytes);
+    for (int block = 0; block < numBlocks; ++block) {
+      final int first = block * samplingInterval;
+      final int last = Math.min(size, first + samplingInterval) - 1;
+      samples.writeLong(starts[first]);
+      samples.writeInt(lengths.size());
+      for (int e = first; e < last; ++e) {
+        VarInt.write(lengths, starts[e + 1] - starts[e]);
+      }
+    }
+    samples.writeLong(starts[size]);
+    samples.writeInt(lengths.size());
+    samples.close();
+    lengths.close();
+
+    raf.write(samplesBytes.toByteArray());
+    raf.write(lengthsBytes.toByteArray());
+    final long endOffset = raf.getFilePointer();
+    raf.seek(startOffset + INT_BYTES);
+    raf.writeInt(size);
+    raf.writeInt(samplingInterval);
+    raf.writeLong(tocOffset);
+    raf.seek(endOffset);
+  }
   
   public static <T> RAFListSerializer<T> getWrapper(final RAFSerializer<T> serializer) {
     return new RAFListSerializer.Wrapper<T>(serializer);
@@ -14,12 +14,26 @@
 
 package com.hughes.util.raf;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 import junit.framework.TestCase;
@@ -58,6 +72,295 @@ public class RAFListTest extends TestCase {
     assertEquals("Goodbye World!", raf.readUTF());
   }
 
+  public void testMapped() throws IOException {
+    final File file = File.createTempFile("asdf", "asdf");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    raf.writeUTF("Hello World!");
+    final List<String> l1 = Arrays.asList("1a", "1bc", "1def");
+    final List<String> l2 = Arrays.asList("2aa", "2abc", "2adef");
+    RAFList.write(raf, l1, RAFSerializer.STRING);
+    RAFList.write(raf, l2, RAFSerializer.STRING);
+
+    // Tiny segments, so that elements straddle segment boundaries.
+    for (final ByteSource source : Arrays.<ByteSource>asList(
+        MappedByteSource.map(raf), new MappedByteSource(raf.getChannel(), 4))) {
+      final RAFList<String> l1Copy = RAFList.create(source, Serializer.STRING,
+          "Hello World!".length() + 2);
+      assertEquals(l1, l1Copy);
+      final RAFList<String> l2Copy = RAFList.create(source, Serializer.STRING,
+          l1Copy.getEndOffset());
+      assertEquals(l2, l2Copy);
+      assertEquals(raf.length(), l2Copy.getEndOffset());
+    }
+  }
+
+  public void testConcurrentPositionalReads() throws Exception {
+    final File file = File.createTempFile("asdf", "asdf");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    final List<String> list = new ArrayList<String>();
+    for (int i = 0; i < 1000; ++i) {
+      list.add("string" + i);
+    }
+    RAFList.write(raf, list, RAFSerializer.STRING);
+
+    final RAFList<String> listCopy = RAFList.create(
+        ChannelByteSource.create(raf), Serializer.STRING, 0);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; ++t) {
+      final int offset = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < list.size(); ++i) {
+              final int index = (i * 7 + offset) % list.size();
+              assertEquals(list.get(index), listCopy.get(index));
+            }
+          } catch (Throwable e) {
+            failure.set(e);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(failure.get());
+  }
+
+  public void testCompact() throws IOException {
+    final File file = File.createTempFile("asdf", "asdf");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    final Random random = new Random(0);
+    final List<String> list = new ArrayList<String>();
+    for (int i = 0; i < 1000; ++i) {
+      final StringBuilder builder = new StringBuilder();
+      for (int c = random.nextInt(300); c > 0; --c) {
+        builder.append((char) ('a' + random.nextInt(26)));
+      }
+      list.add(builder.toString());
+    }
+
+    final int[] samplingIntervals = { 1, 3, 32, 5000 };
+    for (final int samplingInterval : samplingIntervals) {
+      RAFList.writeCompact(raf, list, RAFList.getWrapper(RAFSerializer.STRING),
+          samplingInterval);
+      RAFList.writeCompact(raf, Collections.<String>emptyList(),
+          RAFSerializer.STRING);
+      RAFList.write(raf, list, RAFSerializer.STRING);
+    }
+    raf.writeUTF("Goodbye World!");
+
+    long offset = 0;
+    for (int i = 0; i < samplingIntervals.length; ++i) {
+      final RAFList<String> copy = RAFList.create(raf, RAFSerializer.STRING,
+          offset);
+      assertEquals(list, copy);
+      for (final TocMode tocMode : TocMode.values()) {
+        assertEquals(list, RAFList.create(MappedByteSource.map(raf),
+            Serializer.STRING, offset, tocMode));
+        assertEquals(list, RAFList.create(raf, RAFSerializer.STRING, offset,
+            tocMode));
+      }
+      final RAFList<String> empty = RAFList.create(raf, RAFSerializer.STRING,
+          copy.getEndOffset());
+      assertEquals(0, empty.size());
+      final RAFList<String> original = RAFList.create(raf,
+          RAFSerializer.STRING, empty.getEndOffset());
+      assertEquals(list, original);
+      offset = original.getEndOffset();
+    }
+    raf.seek(offset);
+    assertEquals("Goodbye World!", raf.readUTF());
+  }
+
+  public void testBackgroundTocLeavesFilePointer() throws Exception {
+    final File file = File.createTempFile("asdf", "asdf");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    final List<String> list = new ArrayList<String>();
+    for (int i = 0; i < 10000; ++i) {
+      list.add("string" + i);
+    }
+    RAFList.writeCompact(raf, list, RAFList.getWrapper(RAFSerializer.STRING),
+        RAFList.DEFAULT_SAMPLING_INTERVAL);
+    RAFList.write(raf, list, RAFSerializer.STRING);
+    raf.writeUTF("Goodbye World!");
+
+    // Holds up the TocLoader threads so that the loads run after the lists
+    // are opened.
+    final int loaderThreads = Math.max(1,
+        Runtime.getRuntime().availableProcessors() / 2);
+    final CountDownLatch started = new CountDownLatch(loaderThreads);
+    final CountDownLatch release = new CountDownLatch(1);
+    for (int t = 0; t < loaderThreads; ++t) {
+      TocLoader.load(new Callable<Void>() {
+        @Override
+        public Void call() throws InterruptedException {
+          started.countDown();
+          release.await();
+          return null;
+        }
+      });
+    }
+    started.await();
+    final RAFList<String> compact = RAFList.create(raf, RAFSerializer.STRING,
+        0, TocMode.BACKGROUND);
+    final RAFList<String> original = RAFList.create(raf, RAFSerializer.STRING,
+        raf.getFilePointer(), TocMode.BACKGROUND);
+    final long endOffset = raf.getFilePointer();
+    assertEquals(original.getEndOffset(), endOffset);
+    release.countDown();
+    final long deadline = System.currentTimeMillis() + 100;
+    while (System.currentTimeMillis() < deadline) {
+      synchronized (raf) {
+        assertEquals(endOffset, raf.getFilePointer());
+      }
+    }
+    synchronized (raf) {
+      assertEquals("Goodbye World!", raf.readUTF());
+    }
+    assertEquals(list, compact);
+    assertEquals(list, original);
+  }
+
+  public void testInterruptLeavesFileOpen() throws IOException {
+    final File file = File.createTempFile("asdf", "asdf");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    final List<String> list = Arrays.asList("a", "b", "c");
+    RAFList.write(raf, list, RAFSerializer.STRING);
+    raf.writeUTF("Goodbye World!");
+
+    Thread.currentThread().interrupt();
+    try {
+      assertEquals(list, RAFList.create(raf, RAFSerializer.STRING, 0,
+          TocMode.EAGER));
+    } finally {
+      assertTrue(Thread.interrupted());
+    }
+    assertEquals("Goodbye World!", raf.readUTF());
+  }
+
+  public void testWriteIterator() throws IOException {
+    final File file = File.createTempFile("asdf", "asdf");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    final List<String> list = new ArrayList<String>();
+    for (int i = 0; i < 100; ++i) {
+      list.add("string" + i);
+    }
+    raf.writeUTF("Hello World!");
+    RAFList.writeCompact(raf, list.iterator(), RAFSerializer.STRING);
+    RAFList.writeCompact(raf, Collections.<String>emptyList().iterator(),
+        RAFSerializer.STRING);
+    raf.writeUTF("Goodbye World!");
+
+    final RAFList<String> copy = RAFList.create(raf, RAFSerializer.STRING,
+        "Hello World!".length() + 2);
+    assertEquals(list, copy);
+    final RAFList<String> empty = RAFList.create(raf, RAFSerializer.STRING,
+        copy.getEndOffset());
+    assertEquals(0, empty.size());
+    raf.seek("Hello World!".length() + 2);
+    assertEquals(RAFList.COMPACT_MAGIC, raf.readInt());
+    raf.seek(empty.getEndOffset());
+    assertEquals("Goodbye World!", raf.readUTF());
+  }
+
+  public void testBulkReads() throws IOException {
+    final File file = File.createTempFile("asdf", "asdf");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    final List<String> list = new ArrayList<String>();
+    for (int i = 0; i < 3000; ++i) {
+      list.add("string" + i);
+    }
+    RAFList.write(raf, list, RAFSerializer.STRING);
+    final long compactStart = raf.getFilePointer();
+    RAFList.writeCompact(raf, list, RAFList.getWrapper(RAFSerializer.STRING), 7);
+
+    final List<RAFList<String>> copies = Arrays.asList(
+        RAFList.create(raf, RAFSerializer.STRING, 0),
+        RAFList.create(raf, RAFSerializer.STRING, compactStart),
+        RAFList.create(MappedByteSource.map(raf), Serializer.STRING, 0),
+        RAFList.create(MappedByteSource.map(raf), Serializer.STRING,
+            compactStart),
+        RAFList.create(MappedByteSource.map(raf), Serializer.STRING,
+            compactStart, TocMode.EAGER));
+    for (final RAFList<String> copy : copies) {
+      final List<String> iterated = new ArrayList<String>();
+      for (final String s : copy) {
+        iterated.add(s);
+      }
+      assertEquals(list, iterated);
+      for (final int[] range : new int[][] { { 0, 0 }, { 0, 3000 },
+          { 5, 6 }, { 6, 7 }, { 7, 21 }, { 13, 2999 }, { 2999, 3000 } }) {
+        assertEquals(list.subList(range[0], range[1]),
+            copy.getRange(range[0], range[1]));
+      }
+      final int[] indices = { 2999, 5, 17, 6, 0, 5, 1500, 20, 2998 };
+      final List<String> expected = new ArrayList<String>();
+      for (final int i : indices) {
+        expected.add(list.get(i));
+      }
+      assertEquals(expected, copy.getAll(indices));
+    }
+  }
+
+  public void testGetAsync() throws Exception {
+    final File file = File.createTempFile("asdf", "asdf");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    final List<String> list = Arrays.asList("1a", "1bc", "1def");
+    RAFList.write(raf, list, RAFSerializer.STRING);
+
+    final ExecutorService executor = AsyncReader.newIoExecutor(2);
+    final AsyncReader<String> reader = AsyncReader.create(
+        RAFList.create(ChannelByteSource.create(raf), Serializer.STRING, 0),
+        executor);
+    assertEquals("1bc", reader.getAsync(1).get());
+
+    final CountDownLatch latch = new CountDownLatch(3);
+    final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+    final AsyncReader.Callback<Object> callback = new AsyncReader.Callback<Object>() {
+      @Override
+      public void onSuccess(final Object result) {
+        results.add(result);
+        latch.countDown();
+      }
+
+      @Override
+      public void onFailure(final Throwable error) {
+        results.add(error.getClass());
+        latch.countDown();
+      }
+    };
+    reader.getAsync(2, callback);
+    reader.getAsync(3, callback);
+    reader.submit(new Callable<String>() {
+      @Override
+      public String call() throws IOException {
+        throw new IOException();
+      }
+    }, callback);
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    assertTrue(results.contains("1def"));
+    assertTrue(results.contains(IOException.class));
+    assertTrue(results.contains(IndexOutOfBoundsException.class));
+    executor.shutdown();
+  }
+
   public void testEmptyList() throws IOException {
     final File file = File.createTempFile("asdf", "asdf");
     file.deleteOnExit();
@@ -77,4 +380,113 @@ public class RAFListTest extends TestCase {
     assertEquals("Goodbye World!", raf.readUTF());
   }
 
+  public void testBufferSerializers() throws IOException {
+    final List<String> strings = Arrays.asList("", "hello", "\u0000",
+        "caf\u00e9", "\u4e2d\u6587", "\ud83d\ude00", "\u07ff\u0800\uffff");
+    final ByteBuffer buffer = ByteBuffer.allocate(1024);
+    for (final String string : strings) {
+      final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      new DataOutputStream(expected).writeUTF(string);
+      buffer.clear();
+      BufferSerializer.STRING.write(buffer, string);
+      buffer.flip();
+      assertTrue(Arrays.equals(expected.toByteArray(),
+          Arrays.copyOf(buffer.array(), buffer.limit())));
+      assertEquals(string, BufferSerializer.STRING.read(buffer));
+      assertFalse(buffer.hasRemaining());
+    }
+    try {
+      BufferSerializer.STRING.write(ByteBuffer.allocate(4), "hello");
+      fail();
+    } catch (BufferOverflowException e) {
+    }
+
+    final File file = File.createTempFile("asdf", "asdf");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    final List<String> list = new ArrayList<String>();
+    for (int i = 0; i < 1000; ++i) {
+      list.add("string\u00e9" + i);
+    }
+    RAFList.write(raf, list, RAFSerializer.STRING);
+    final long compactStart = raf.getFilePointer();
+    RAFList.writeCompact(raf, list.iterator(), RAFSerializer.STRING);
+
+    final ByteSource source = MappedByteSource.map(raf);
+    assertEquals(list, RAFList.create(source, BufferSerializer.STRING, 0));
+    assertEquals(list, RAFList.create(source,
+        BufferSerializer.Wrapper.wrap(RAFSerializer.STRING), compactStart,
+        TocMode.EAGER));
+    final RAFList<String> wrapped = RAFList.create(source,
+        new BufferSerializer.Wrapper<String>(Serializer.STRING), compactStart);
+    assertEquals(list, wrapped);
+    assertEquals(list.subList(10, 20), wrapped.getRange(10, 20));
+    assertEquals(Arrays.asList(list.get(7), list.get(3)),
+        wrapped.getAll(new int[] {7, 3}));
+    assertSame(BufferSerializer.LONG,
+        BufferSerializer.Wrapper.wrap(Serializer.LONG));
+  }
+
+  public void testParallelScan() throws Exception {
+    final File file = File.createTempFile("asdf", "asdf");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    final List<String> list = new ArrayList<String>();
+    for (int i = 0; i < 5000; ++i) {
+      list.add("string" + i);
+    }
+    RAFList.writeCompact(raf, list.iterator(), RAFSerializer.STRING);
+    final long uniformStart = raf.getFilePointer();
+    UniformRAFList.write(raf, list.subList(1000, 2000), RAFSerializer.STRING, 12);
+
+    final ByteSource source = MappedByteSource.map(raf);
+    final RAFList<String> rafList = RAFList.create(source, Serializer.STRING, 0);
+    final UniformRAFList<String> uniformList = UniformRAFList.create(source,
+        Serializer.STRING, uniformStart);
+    assertTrue(Arrays.equals(new int[] {0, 1250, 2500, 3750, 5000},
+        rafList.split(4)));
+    assertTrue(Arrays.equals(new int[] {0, 1, 2},
+        ParallelScan.evenSplit(2, 10)));
+    final List<String> range = new ArrayList<String>();
+    for (final Iterator<String> i = rafList.iterator(1500, 2600); i.hasNext();) {
+      range.add(i.next());
+    }
+    assertEquals(list.subList(1500, 2600), range);
+
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      for (final SplittableList<String> splittable : Arrays.<SplittableList<String>>asList(
+          rafList, uniformList)) {
+        final int offset = splittable == rafList ? 0 : 1000;
+        final AtomicIntegerArray visits = new AtomicIntegerArray(splittable.size());
+        ParallelScan.forEach(splittable, executor, 4,
+            new ParallelScan.Visitor<String>() {
+              @Override
+              public void visit(final int index, final String t) {
+                assertEquals(list.get(offset + index), t);
+                visits.incrementAndGet(index);
+              }
+            });
+        for (int i = 0; i < visits.length(); ++i) {
+          assertEquals(1, visits.get(i));
+        }
+      }
+
+      try {
+        ParallelScan.forEach(rafList, executor, 4,
+            new ParallelScan.Visitor<String>() {
+              @Override
+              public void visit(final int index, final String t) {
+                assertTrue(index != 4321);
+              }
+            });
+        fail();
+      } catch (RuntimeException e) {
+        assertNotNull(e.getCause());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
 }
@@ -0,0 +1,63 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over a list by reading it batchSize elements at a time with a
+ * bulk range read.
+ */
+abstract class RangeIterator<T> implements Iterator<T> {
+
+  private final int end;
+  private final int batchSize;
+  private int next;
+  private List<T> batch;
+  private int batchStart;
+
+  RangeIterator(final int start, final int end, final int batchSize) {
+    this.next = start;
+    this.end = end;
+    this.batchSize = batchSize;
+  }
+
+  abstract List<T> readRange(final int from, final int to);
+
+  @Override
+  public boolean hasNext() {
+    return next < end;
+  }
+
+  @Override
+  public T next() {
+    if (next >= end) {
+      throw new NoSuchElementException();
+    }
+    if (batch == null || next - batchStart >= batch.size()) {
+      batchStart = next;
+      batch = readRange(next, Math.min(end, next + batchSize));
+    }
+    return batch.get(next++ - batchStart);
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+}
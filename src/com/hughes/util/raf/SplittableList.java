@@ -0,0 +1,40 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A list that can be cut into contiguous pieces which can each be scanned
+ * efficiently on its own, for example on different threads with
+ * ParallelScan.
+ */
+public interface SplittableList<T> extends List<T> {
+
+  /**
+   * Returns between 2 and maxPieces + 1 increasing indices, starting with 0
+   * and ending with size(), that cut the list into pieces of similar cost
+   * along boundaries that are cheap to start reading at.
+   */
+  public int[] split(final int maxPieces);
+
+  /**
+   * Iterates over elements from (inclusive) to to (exclusive) with bulk
+   * reads.
+   */
+  public Iterator<T> iterator(final int from, final int to);
+
+}
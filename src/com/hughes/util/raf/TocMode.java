@@ -0,0 +1,40 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf;
+
+/**
+ * How a list gets at its table of contents (TOC) once it's open.
+ */
+public enum TocMode {
+
+  /**
+   * Reads TOC entries from the file as lookups need them, keeping nothing in
+   * memory. CompressedList can only do this with a fixed-width TOC.
+   */
+  ON_DEMAND,
+
+  /**
+   * Loads the whole TOC into memory while opening the list.
+   */
+  EAGER,
+
+  /**
+   * Loads the whole TOC into memory on a background thread, so opening the
+   * list is cheap. Lookups that come first read the TOC on demand where
+   * that's possible, and otherwise wait for it.
+   */
+  BACKGROUND
+
+}
@@ -16,14 +16,28 @@ package com.hughes.util.raf;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.RandomAccess;
 
-public class UniformRAFList<T> extends AbstractList<T> implements RandomAccess {
+public class UniformRAFList<T> extends AbstractList<T> implements RandomAccess,
+    SplittableList<T> {
+
+  // Elements read at a time by iterator().
+  private static final int ITERATOR_BATCH_SIZE = 1024;
+  // getAll() reads requested elements this close together with one read.
+  private static final int COALESCE_GAP = 16;
 
   final RandomAccessFile raf;
   final RAFListSerializer<T> serializer;
+  // Set instead of raf and serializer when reading through a ByteSource.
+  final ByteSource source;
+  final BufferSerializer<T> sourceSerializer;
   final int size;
   final int datumSize;
   final long dataStart;
@@ -35,6 +49,8 @@ public class UniformRAFList<T> extends AbstractList<T> implements RandomAccess {
     synchronized (raf) {
       this.raf = raf;
       this.serializer = serializer;
+      this.source = null;
+      this.sourceSerializer = null;
       raf.seek(startOffset);
 
       size = raf.readInt();
@@ -45,6 +61,33 @@ public class UniformRAFList<T> extends AbstractList<T> implements RandomAccess {
     }
   }
 
+  /**
+   * Reads the list through source, without locking, so any number of threads
+   * can call get() concurrently.
+   */
+  public UniformRAFList(final ByteSource source,
+      final Serializer<T> serializer, final long startOffset)
+      throws IOException {
+    this(source, BufferSerializer.Wrapper.wrap(serializer), startOffset);
+  }
+
+  /**
+   * Same, but elements are decoded straight from the bytes read from source.
+   */
+  public UniformRAFList(final ByteSource source,
+      final BufferSerializer<T> serializer, final long startOffset)
+      throws IOException {
+    this.raf = null;
+    this.serializer = null;
+    this.source = source;
+    this.sourceSerializer = serializer;
+    final ByteBuffer header = source.read(startOffset, 8);
+    size = header.getInt();
+    datumSize = header.getInt();
+    dataStart = startOffset + 8;
+    endOffset = dataStart + (long) size * datumSize;
+  }
+
   public long getEndOffset() {
     return endOffset;
   }
@@ -55,6 +98,9 @@ public class UniformRAFList<T> extends AbstractList<T> implements RandomAccess {
       throw new IndexOutOfBoundsException("" + i);
     }
     try {
+      if (source != null) {
+        return decode(source.read(dataStart + (long) i * datumSize, datumSize));
+      }
       synchronized (raf) {
         raf.seek(dataStart + i * datumSize);
         final T result = serializer.read(raf, i);
@@ -70,6 +116,191 @@ public class UniformRAFList<T> extends AbstractList<T> implements RandomAccess {
     }
   }
 
+  private T decode(final ByteBuffer datum) throws IOException {
+    final T result = sourceSerializer.read(datum);
+    if (datum.hasRemaining()) {
+      throw new RuntimeException("Read "
+          + (datumSize - datum.remaining())
+          + " bytes, should have read " + datumSize);
+    }
+    return result;
+  }
+
+  /**
+   * Returns elements from (inclusive) to to (exclusive), reading the region
+   * they occupy in one go rather than element by element.
+   */
+  public List<T> getRange(final int from, final int to) {
+    if (from < 0 || to > size || from > to) {
+      throw new IndexOutOfBoundsException(from + ".." + to + ", size=" + size);
+    }
+    final List<T> result = new ArrayList<T>(to - from);
+    if (from == to) {
+      return result;
+    }
+    try {
+      if (source != null) {
+        final ByteBuffer data = source.read(dataStart + (long) from * datumSize,
+            (to - from) * datumSize);
+        for (int e = 0; e < to - from; ++e) {
+          final ByteBuffer datum = data.duplicate();
+          datum.limit((e + 1) * datumSize);
+          datum.position(e * datumSize);
+          result.add(decode(datum));
+        }
+        return result;
+      }
+      synchronized (raf) {
+        raf.seek(dataStart + (long) from * datumSize);
+        for (int e = from; e < to; ++e) {
+          result.add(serializer.read(raf, e));
+          if (raf.getFilePointer() != dataStart + (long) (e + 1) * datumSize) {
+            throw new RuntimeException("Read "
+                + (raf.getFilePointer() - (dataStart + (long) e * datumSize))
+                + " bytes, should have read " + datumSize);
+          }
+        }
+      }
+      return result;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Returns the elements at indices, in the same order. The indices are
+   * visited in sorted order, and nearby ones are read with one read per run.
+   */
+  @SuppressWarnings("unchecked")
+  public List<T> getAll(final int[] indices) {
+    final long[] requests = MultiGet.sortByIndex(indices, size);
+    final Object[] result = new Object[indices.length];
+    try {
+      for (int r = 0; r < requests.length;) {
+        final int runEnd = MultiGet.runEnd(requests, r, COALESCE_GAP);
+        final int from = MultiGet.index(requests[r]);
+        final int to = MultiGet.index(requests[runEnd - 1]) + 1;
+        if (source != null) {
+          final ByteBuffer data = source.read(
+              dataStart + (long) from * datumSize, (to - from) * datumSize);
+          for (; r < runEnd; ++r) {
+            final int e = MultiGet.index(requests[r]) - from;
+            final ByteBuffer datum = data.duplicate();
+            datum.limit((e + 1) * datumSize);
+            datum.position(e * datumSize);
+            result[MultiGet.position(requests[r])] = decode(datum);
+          }
+        } else {
+          synchronized (raf) {
+            for (; r < runEnd; ++r) {
+              result[MultiGet.position(requests[r])] = get(MultiGet.index(requests[r]));
+            }
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return Arrays.asList((T[]) result);
+  }
+
+  /**
+   * Compares a record, given as a buffer holding its datumSize bytes, to the
+   * key being searched for.
+   */
+  public interface RecordComparator {
+    int compareToKey(final ByteBuffer record);
+  }
+
+  /**
+   * Binary searches a list sorted by comparator, comparing the raw bytes of
+   * each probed record without deserializing it. Returns the index of a
+   * matching record or, as with Collections.binarySearch, (-(insertion
+   * point) - 1); get() the result to deserialize only the hit.
+   */
+  public int binarySearch(final RecordComparator comparator) {
+    int low = 0;
+    int high = size - 1;
+    try {
+      while (low <= high) {
+        final int mid = (low + high) >>> 1;
+        final int comparison = comparator.compareToKey(readRecord(mid));
+        if (comparison < 0) {
+          low = mid + 1;
+        } else if (comparison > 0) {
+          high = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * Same, for lists sorted by the unsigned bytes of a prefix of each record,
+   * e.g. a big-endian non-negative int or long id.
+   */
+  public int binarySearch(final byte[] keyPrefix) {
+    if (keyPrefix.length > datumSize) {
+      throw new IllegalArgumentException("Key of " + keyPrefix.length
+          + " bytes is longer than datumSize=" + datumSize);
+    }
+    return binarySearch(new RecordComparator() {
+      @Override
+      public int compareToKey(final ByteBuffer record) {
+        for (int b = 0; b < keyPrefix.length; ++b) {
+          final int difference = (record.get() & 0xff) - (keyPrefix[b] & 0xff);
+          if (difference != 0) {
+            return difference;
+          }
+        }
+        return 0;
+      }
+    });
+  }
+
+  private ByteBuffer readRecord(final int i) throws IOException {
+    final long position = dataStart + (long) i * datumSize;
+    if (source != null) {
+      return source.read(position, datumSize);
+    }
+    final byte[] record = new byte[datumSize];
+    synchronized (raf) {
+      raf.seek(position);
+      raf.readFully(record);
+    }
+    return ByteBuffer.wrap(record);
+  }
+
+  /**
+   * Reads the list a batch of elements at a time with getRange().
+   */
+  @Override
+  public Iterator<T> iterator() {
+    return iterator(0, size);
+  }
+
+  @Override
+  public Iterator<T> iterator(final int from, final int to) {
+    if (from < 0 || to > size || from > to) {
+      throw new IndexOutOfBoundsException(from + ".." + to + ", size=" + size);
+    }
+    return new RangeIterator<T>(from, to, ITERATOR_BATCH_SIZE) {
+      @Override
+      List<T> readRange(final int from, final int to) {
+        return getRange(from, to);
+      }
+    };
+  }
+
+  @Override
+  public int[] split(final int maxPieces) {
+    return ParallelScan.evenSplit(size, maxPieces);
+  }
+
   @Override
   public int size() {
     return size;
@@ -85,6 +316,16 @@ public class UniformRAFList<T> extends AbstractList<T> implements RandomAccess {
       throws IOException {
     return new UniformRAFList<T>(raf, RAFList.getWrapper(serializer), startOffset);
   }
+  public static <T> UniformRAFList<T> create(final ByteSource source,
+      final Serializer<T> serializer, final long startOffset)
+      throws IOException {
+    return new UniformRAFList<T>(source, serializer, startOffset);
+  }
+  public static <T> UniformRAFList<T> create(final ByteSource source,
+      final BufferSerializer<T> serializer, final long startOffset)
+      throws IOException {
+    return new UniformRAFList<T>(source, serializer, startOffset);
+  }
 
   public static <T> void write(final RandomAccessFile raf,
       final Collection<T> list, final RAFListSerializer<T> serializer,
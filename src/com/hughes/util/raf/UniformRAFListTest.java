@@ -17,6 +17,8 @@ package com.hughes.util.raf;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -53,6 +55,145 @@ public class UniformRAFListTest extends TestCase {
     assertEquals("Goodbye World!", raf.readUTF());
   }
 
+  public void testByteSources() throws IOException {
+    final File file = File.createTempFile("asdf", "asdf");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    final List<String> l1 = Arrays.asList("1aaa", "1bca", "1def");
+    final List<String> l2 = Arrays.asList("2aabc", "2abcd", "2adef");
+    UniformRAFList.write(raf, l1, RAFSerializer.STRING, 6);
+    UniformRAFList.write(raf, l2, RAFSerializer.STRING, 7);
+
+    for (final ByteSource source : Arrays.<ByteSource>asList(
+        new MappedByteSource(raf.getChannel(), 3),
+        ChannelByteSource.create(raf))) {
+      final UniformRAFList<String> l1Copy = UniformRAFList.create(source,
+          Serializer.STRING, 0);
+      assertEquals(l1, l1Copy);
+      final UniformRAFList<String> l2Copy = UniformRAFList.create(source,
+          Serializer.STRING, l1Copy.getEndOffset());
+      assertEquals(l2, l2Copy);
+      assertEquals(raf.length(), l2Copy.getEndOffset());
+    }
+  }
+
+  public void testBulkReads() throws IOException {
+    final File file = File.createTempFile("asdf", "asdf");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    final List<String> list = new ArrayList<String>();
+    for (int i = 0; i < 3000; ++i) {
+      list.add(String.format("%04d", i));
+    }
+    UniformRAFList.write(raf, list, RAFSerializer.STRING, 6);
+
+    final List<UniformRAFList<String>> copies = Arrays.asList(
+        UniformRAFList.create(raf, RAFSerializer.STRING, 0),
+        UniformRAFList.create(MappedByteSource.map(raf), Serializer.STRING, 0));
+    for (final UniformRAFList<String> copy : copies) {
+      final List<String> iterated = new ArrayList<String>();
+      for (final String s : copy) {
+        iterated.add(s);
+      }
+      assertEquals(list, iterated);
+      assertEquals(list.subList(0, 0), copy.getRange(0, 0));
+      assertEquals(list.subList(17, 2500), copy.getRange(17, 2500));
+      assertEquals(list.subList(2999, 3000), copy.getRange(2999, 3000));
+      final int[] indices = { 2999, 5, 17, 6, 0, 5, 1500, 20, 2998 };
+      final List<String> expected = new ArrayList<String>();
+      for (final int i : indices) {
+        expected.add(list.get(i));
+      }
+      assertEquals(expected, copy.getAll(indices));
+    }
+  }
+
+  public void testPrimitiveLists() throws IOException {
+    final File file = File.createTempFile("asdf", "asdf");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    final int[] ints = { 7, -1, Integer.MAX_VALUE, 0, 12345 };
+    final long[] longs = { 7, -1, Long.MIN_VALUE, 0, 1L << 40 };
+    IntUniformList.write(raf, ints);
+    LongUniformList.write(raf, longs);
+    // Same format as UniformRAFList.
+    UniformRAFList.write(raf, Arrays.asList(3, 4), new RAFSerializer<Integer>() {
+      @Override
+      public void write(RandomAccessFile raf, Integer t) throws IOException {
+        raf.writeInt(t);
+      }
+
+      @Override
+      public Integer read(RandomAccessFile raf) throws IOException {
+        return raf.readInt();
+      }
+    }, 4);
+
+    for (final ByteSource source : Arrays.<ByteSource>asList(
+        MappedByteSource.map(raf), ChannelByteSource.create(raf))) {
+      final IntUniformList intList = IntUniformList.create(source, 0);
+      assertTrue(Arrays.equals(ints, intList.toIntArray()));
+      assertEquals(Integer.MAX_VALUE, intList.getInt(2));
+      final LongUniformList longList = LongUniformList.create(source,
+          intList.getEndOffset());
+      assertTrue(Arrays.equals(longs, longList.toLongArray()));
+      assertEquals(1L << 40, longList.getLong(4));
+      final long[] dest = new long[3];
+      longList.getLongs(2, dest, 1, 2);
+      assertTrue(Arrays.equals(new long[] { 0, Long.MIN_VALUE, 0 }, dest));
+      final IntUniformList written = IntUniformList.create(source,
+          longList.getEndOffset());
+      assertEquals(Arrays.asList(3, 4), written);
+      try {
+        LongUniformList.create(source, longList.getEndOffset());
+        fail();
+      } catch (IOException e) {
+      }
+    }
+  }
+
+  public void testBinarySearch() throws IOException {
+    final File file = File.createTempFile("asdf", "asdf");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    // Sorted by id, with a payload that isn't.
+    final long[] records = new long[1000];
+    for (int i = 0; i < records.length; ++i) {
+      records[i] = ((long) (i * 3 + 1) << 32) | (records.length - i);
+    }
+    LongUniformList.write(raf, records);
+
+    final List<UniformRAFList<Long>> lists = Arrays.asList(
+        UniformRAFList.create(raf, RAFList.getWrapper(new RAFSerializer<Long>() {
+          @Override
+          public void write(RandomAccessFile raf, Long t) throws IOException {
+            raf.writeLong(t);
+          }
+
+          @Override
+          public Long read(RandomAccessFile raf) throws IOException {
+            return raf.readLong();
+          }
+        }), 0),
+        UniformRAFList.create(MappedByteSource.map(raf), Serializer.LONG, 0));
+    for (final UniformRAFList<Long> list : lists) {
+      for (int id = 0; id < records.length * 3; ++id) {
+        final byte[] key = ByteBuffer.allocate(4).putInt(id).array();
+        final int index = list.binarySearch(key);
+        if (id % 3 == 1) {
+          assertEquals(id / 3, index);
+          assertEquals(records.length - index, (long) list.get(index) & 0xffffffffL);
+        } else {
+          assertEquals(-((id + 1) / 3) - 1, index);
+        }
+      }
+    }
+  }
+
   public void testEmptyList() throws IOException {
     final File file = File.createTempFile("asdf", "asdf");
     file.deleteOnExit();
@@ -0,0 +1,131 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf.compressed;
+
+import com.hughes.util.LRUCacheMap;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A bounded LRU cache of decompressed chunks that is safe for concurrent
+ * readers. A chunk being loaded is held as the FutureTask loading it, apart
+ * from the cached chunks so that it's never evicted, and threads that miss on
+ * the same chunk wait for that single load instead of each decompressing it.
+ * The lock is only held to look up and update the maps, never while loading.
+ */
+final class ChunkCache<V> {
+
+    interface Loader<V> {
+        V load(int chunk) throws IOException;
+    }
+
+    private final Loader<V> loader;
+    // Guarded by this.
+    private final LRUCacheMap<Integer, V> loaded;
+    private final Map<Integer, FutureTask<V>> loading = new HashMap<Integer, FutureTask<V>>();
+
+    ChunkCache(final Loader<V> loader, final int maxChunks) {
+        if (maxChunks < 0) {
+            throw new IllegalArgumentException("maxChunks=" + maxChunks);
+        }
+        this.loader = loader;
+        loaded = new LRUCacheMap<Integer, V>(maxChunks);
+    }
+
+    /**
+     * Bounds the number of cached chunks, evicting the least recently used
+     * ones if needed. 0 caches nothing beyond the loads in progress.
+     */
+    synchronized void setMaxChunks(final int maxChunks) {
+        if (maxChunks < 0) {
+            throw new IllegalArgumentException("maxChunks=" + maxChunks);
+        }
+        loaded.setMaxSize(maxChunks);
+    }
+
+    /**
+     * Whether chunk is cached or being loaded.
+     */
+    synchronized boolean contains(final int chunk) {
+        return loaded.containsKey(chunk) || loading.containsKey(chunk);
+    }
+
+    /**
+     * Returns chunk if it's cached, without loading it otherwise.
+     */
+    synchronized V getIfPresent(final int chunk) {
+        return loaded.get(chunk);
+    }
+
+    V get(final int chunk) throws IOException {
+        FutureTask<V> task;
+        boolean load = false;
+        synchronized (this) {
+            final V value = loaded.get(chunk);
+            if (value != null) {
+                return value;
+            }
+            task = loading.get(chunk);
+            if (task == null) {
+                task = new FutureTask<V>(new Callable<V>() {
+                    @Override
+                    public V call() throws IOException {
+                        return loader.load(chunk);
+                    }
+                });
+                loading.put(chunk, task);
+                load = true;
+            }
+        }
+        if (load) {
+            task.run();
+        }
+        try {
+            final V value = task.get();
+            if (load) {
+                synchronized (this) {
+                    loading.remove(chunk);
+                    loaded.put(chunk, value);
+                }
+            }
+            return value;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted loading chunk " + chunk);
+        } catch (ExecutionException e) {
+            // Don't cache failures; the next get() tries again.
+            if (load) {
+                synchronized (this) {
+                    loading.remove(chunk);
+                }
+            }
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (RuntimeException) cause;
+        }
+    }
+
+}
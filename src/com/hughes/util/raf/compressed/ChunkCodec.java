@@ -0,0 +1,206 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf.compressed;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the chunks of a CompressedList. The codec's id and parameters
+ * are stored in the list header, and CompressedList looks the id up with
+ * forId() to get a codec that can decompress the chunks again, so a custom
+ * codec has to be registered before a list that uses it is opened.
+ * 
+ * Codecs are shared by all the threads reading a list, so they must be
+ * thread-safe.
+ */
+public abstract class ChunkCodec {
+
+    public interface Factory {
+        /**
+         * Returns a codec for a list written with parameters.
+         */
+        ChunkCodec create(byte[] parameters) throws IOException;
+    }
+
+    public static final int STORE_ID = 0;
+    public static final int DEFLATE_ID = 1;
+    public static final int LZ_ID = 2;
+    public static final int DEFLATE_DICTIONARY_ID = 3;
+
+    /**
+     * Stores chunks as they are.
+     */
+    public static final ChunkCodec STORE = new Store();
+
+    /**
+     * Raw deflate, without gzip's per-chunk header and CRC.
+     */
+    public static final ChunkCodec DEFLATE = deflate(Deflater.DEFAULT_COMPRESSION);
+
+    /**
+     * A byte-oriented LZ77 codec in the style of LZ4: a worse ratio than
+     * DEFLATE, but it decompresses several times faster.
+     */
+    public static final ChunkCodec LZ = new LzCodec();
+
+    private static final Map<Integer, Factory> factories = new HashMap<Integer, Factory>();
+    static {
+        register(STORE_ID, constantFactory(STORE));
+        register(DEFLATE_ID, constantFactory(DEFLATE));
+        register(LZ_ID, constantFactory(LZ));
+        register(DEFLATE_DICTIONARY_ID, new Factory() {
+            @Override
+            public ChunkCodec create(final byte[] parameters) {
+                return deflate(Deflater.DEFAULT_COMPRESSION, parameters);
+            }
+        });
+    }
+
+    public abstract int id();
+
+    /**
+     * Bytes stored in the list header that factory needs to recreate this
+     * codec.
+     */
+    public byte[] parameters() {
+        return new byte[0];
+    }
+
+    public abstract byte[] compress(byte[] in, int offset, int length) throws IOException;
+
+    /**
+     * Decompresses all of in's remaining bytes into exactly length bytes of
+     * out.
+     */
+    public abstract void decompress(ByteBuffer in, byte[] out, int offset, int length) throws IOException;
+
+    public static ChunkCodec deflate(final int level) {
+        return new Deflate(level, null);
+    }
+
+    /**
+     * Raw deflate with a preset dictionary, which is stored in the list
+     * header. Chunks are compressed as if they followed the dictionary, so
+     * that even small chunks can refer back to common strings.
+     */
+    public static ChunkCodec deflate(final int level, final byte[] dictionary) {
+        return new Deflate(level, dictionary);
+    }
+
+    public static void register(final int id, final Factory factory) {
+        synchronized (factories) {
+            if (factories.containsKey(id)) {
+                throw new IllegalArgumentException("Codec id already registered: " + id);
+            }
+            factories.put(id, factory);
+        }
+    }
+
+    /**
+     * For tests, which register codecs of their own and may run more than
+     * once in the same VM.
+     */
+    static void unregister(final int id) {
+        synchronized (factories) {
+            factories.remove(id);
+        }
+    }
+
+    static ChunkCodec forId(final int id, final byte[] parameters) throws IOException {
+        final Factory factory;
+        synchronized (factories) {
+            factory = factories.get(id);
+        }
+        if (factory == null) {
+            throw new IOException("Unknown chunk codec: " + id);
+        }
+        return factory.create(parameters);
+    }
+
+    private static Factory constantFactory(final ChunkCodec codec) {
+        return new Factory() {
+            @Override
+            public ChunkCodec create(final byte[] parameters) {
+                return codec;
+            }
+        };
+    }
+
+
+    private static final class Store extends ChunkCodec {
+        @Override
+        public int id() {
+            return STORE_ID;
+        }
+
+        @Override
+        public byte[] compress(final byte[] in, final int offset, final int length) {
+            final byte[] result = new byte[length];
+            System.arraycopy(in, offset, result, 0, length);
+            return result;
+        }
+
+        @Override
+        public void decompress(final ByteBuffer in, final byte[] out, final int offset,
+                final int length) throws IOException {
+            if (in.remaining() != length) {
+                throw new IOException("Stored chunk has " + in.remaining() + " bytes, expected " + length);
+            }
+            in.duplicate().get(out, offset, length);
+        }
+    }
+
+    private static final class Deflate extends ChunkCodec {
+        private final int level;
+        // Null for none.
+        private final byte[] dictionary;
+
+        Deflate(final int level, final byte[] dictionary) {
+            if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+                throw new IllegalArgumentException("level=" + level);
+            }
+            this.level = level;
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public int id() {
+            return dictionary == null ? DEFLATE_ID : DEFLATE_DICTIONARY_ID;
+        }
+
+        @Override
+        public byte[] parameters() {
+            return dictionary == null ? super.parameters() : dictionary;
+        }
+
+        @Override
+        public byte[] compress(final byte[] in, final int offset, final int length) {
+            return ChunkEncoder.get().deflate(in, offset, length, level, dictionary);
+        }
+
+        @Override
+        public void decompress(final ByteBuffer in, final byte[] out, final int offset,
+                final int length) throws IOException {
+            final ChunkDecoder decoder = ChunkDecoder.get();
+            final int inLength = in.remaining();
+            decoder.inflate(decoder.input(in), 0, inLength, dictionary, out, offset, length);
+        }
+    }
+
+}
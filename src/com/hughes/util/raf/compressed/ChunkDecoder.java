@@ -0,0 +1,143 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf.compressed;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Per-thread state for decompressing chunks: an Inflater and a scratch
+ * buffer for the compressed bytes, reused from chunk to chunk so that
+ * reading a chunk allocates nothing but its decompressed bytes. The
+ * Inflaters live as long as their threads.
+ */
+final class ChunkDecoder {
+
+    private static final ThreadLocal<ChunkDecoder> decoders = new ThreadLocal<ChunkDecoder>() {
+        @Override
+        protected ChunkDecoder initialValue() {
+            return new ChunkDecoder();
+        }
+    };
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int GZIP_FEXTRA = 4;
+    private static final int GZIP_FNAME = 8;
+    private static final int GZIP_FCOMMENT = 16;
+    private static final int GZIP_FHCRC = 2;
+
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private byte[] input = new byte[8192];
+
+    private ChunkDecoder() {
+    }
+
+    static ChunkDecoder get() {
+        return decoders.get();
+    }
+
+    /**
+     * Copies in's remaining bytes to the start of a scratch array, which
+     * stays valid until the next call. There's always a spare byte after
+     * them, as raw inflate wants.
+     */
+    byte[] input(final ByteBuffer in) {
+        if (input.length < in.remaining() + 1) {
+            input = new byte[Math.max(in.remaining() + 1, input.length * 2)];
+        }
+        in.duplicate().get(input, 0, in.remaining());
+        return input;
+    }
+
+    /**
+     * Inflates the raw deflate stream in in[inOffset, inOffset + inLength)
+     * into exactly outLength bytes of out.
+     */
+    void inflate(final byte[] in, final int inOffset, final int inLength, final byte[] dictionary,
+            final byte[] out, final int outOffset, final int outLength) throws IOException {
+        inflater.reset();
+        if (dictionary != null) {
+            // Raw streams never ask for it, so it's set up front.
+            inflater.setDictionary(dictionary);
+        }
+        // Include the spare byte.
+        inflater.setInput(in, inOffset, inLength + 1);
+        try {
+            int done = 0;
+            while (done < outLength) {
+                final int n = inflater.inflate(out, outOffset + done, outLength - done);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Deflated chunk ended after " + done + " of " + outLength + " bytes");
+                }
+                done += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Decompresses a whole gzip stream, checking its CRC.
+     */
+    byte[] gunzip(final ByteBuffer compressed) throws IOException {
+        final int length = compressed.remaining();
+        final byte[] in = input(compressed);
+        if (length < 18 || (readShortLE(in, 0)) != GZIP_MAGIC || in[2] != 8) {
+            throw new IOException("Not a gzip stream.");
+        }
+        final int flags = in[3];
+        int headerLength = 10;
+        if ((flags & GZIP_FEXTRA) != 0) {
+            headerLength += 2 + readShortLE(in, headerLength);
+        }
+        if ((flags & GZIP_FNAME) != 0) {
+            while (in[headerLength++] != 0) {
+            }
+        }
+        if ((flags & GZIP_FCOMMENT) != 0) {
+            while (in[headerLength++] != 0) {
+            }
+        }
+        if ((flags & GZIP_FHCRC) != 0) {
+            headerLength += 2;
+        }
+        if (headerLength > length - 8) {
+            throw new IOException("Truncated gzip header.");
+        }
+
+        // The trailer is the CRC and size of the uncompressed bytes.
+        final byte[] result = new byte[readIntLE(in, length - 4)];
+        inflate(in, headerLength, length - 8 - headerLength, null, result, 0, result.length);
+        crc.reset();
+        crc.update(result, 0, result.length);
+        if ((int) crc.getValue() != readIntLE(in, length - 8)) {
+            throw new IOException("Bad gzip CRC.");
+        }
+        return result;
+    }
+
+    private static int readShortLE(final byte[] in, final int i) {
+        return (in[i] & 0xff) | (in[i + 1] & 0xff) << 8;
+    }
+
+    private static int readIntLE(final byte[] in, final int i) {
+        return readShortLE(in, i) | readShortLE(in, i + 2) << 16;
+    }
+
+}
@@ -0,0 +1,112 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf.compressed;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Per-thread state for compressing chunks: a Deflater for each compression
+ * level used, and a scratch buffer to deflate into, reused from chunk to
+ * chunk so that compressing a chunk allocates nothing but its compressed
+ * bytes. Like ChunkDecoder's Inflaters, the Deflaters live as long as their
+ * threads, which are the builder's and its executor's.
+ */
+final class ChunkEncoder {
+
+    private static final ThreadLocal<ChunkEncoder> encoders = new ThreadLocal<ChunkEncoder>() {
+        @Override
+        protected ChunkEncoder initialValue() {
+            return new ChunkEncoder();
+        }
+    };
+
+    // Magic, deflate, no flags, no mtime, no extra flags, unknown OS.
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int GZIP_TRAILER_BYTES = 8;
+
+    // Indexed by level + 1, as DEFAULT_COMPRESSION is -1. Changing a
+    // Deflater's level would flush a block at the old one.
+    private final Deflater[] deflaters = new Deflater[Deflater.BEST_COMPRESSION + 2];
+    private final CRC32 crc = new CRC32();
+    private byte[] output = new byte[8192];
+
+    private ChunkEncoder() {
+    }
+
+    static ChunkEncoder get() {
+        return encoders.get();
+    }
+
+    /**
+     * Deflates in[offset, offset + length) as a raw stream.
+     */
+    byte[] deflate(final byte[] in, final int offset, final int length, final int level,
+            final byte[] dictionary) {
+        final int end = deflate(in, offset, length, level, dictionary, 0);
+        return Arrays.copyOf(output, end);
+    }
+
+    /**
+     * Compresses in[offset, offset + length) as a gzip stream, the same as
+     * GZIPOutputStream does but for the OS byte, which depends on the JDK.
+     */
+    byte[] gzip(final byte[] in, final int offset, final int length) {
+        System.arraycopy(GZIP_HEADER, 0, output, 0, GZIP_HEADER.length);
+        final int end = deflate(in, offset, length, Deflater.DEFAULT_COMPRESSION, null, GZIP_HEADER.length);
+        final byte[] result = Arrays.copyOf(output, end + GZIP_TRAILER_BYTES);
+        crc.reset();
+        crc.update(in, offset, length);
+        writeIntLE(result, end, (int) crc.getValue());
+        writeIntLE(result, end + 4, length);
+        return result;
+    }
+
+    /**
+     * Deflates into output from outOffset, growing it as needed, and returns
+     * where the compressed bytes end.
+     */
+    private int deflate(final byte[] in, final int offset, final int length, final int level,
+            final byte[] dictionary, final int outOffset) {
+        Deflater deflater = deflaters[level + 1];
+        if (deflater == null) {
+            deflater = deflaters[level + 1] = new Deflater(level, true);
+        } else {
+            deflater.reset();
+        }
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(in, offset, length);
+        deflater.finish();
+        int end = outOffset;
+        while (!deflater.finished()) {
+            if (end == output.length) {
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+            end += deflater.deflate(output, end, output.length - end);
+        }
+        return end;
+    }
+
+    private static void writeIntLE(final byte[] out, final int i, final int value) {
+        out[i] = (byte) value;
+        out[i + 1] = (byte) (value >>> 8);
+        out[i + 2] = (byte) (value >>> 16);
+        out[i + 3] = (byte) (value >>> 24);
+    }
+
+}
@@ -0,0 +1,124 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf.compressed;
+
+import com.hughes.util.raf.ByteSource;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Where each chunk of a CompressedList starts, and the index one past its
+ * last element. Chunk numChunks() "starts" where the last chunk ends.
+ */
+abstract class ChunkToc {
+
+    abstract int numChunks();
+
+    abstract long chunkStart(int chunk) throws IOException;
+
+    abstract int chunkLastElement(int chunk) throws IOException;
+
+    /**
+     * Binary searches for the chunk holding element.
+     */
+    int findChunk(final int element) throws IOException {
+        int low = 0;
+        int high = numChunks() - 1;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (element < chunkLastElement(mid)) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * A TOC in memory, either in arrays or in buffers that view a mapped
+     * file.
+     */
+    static final class Buffers extends ChunkToc {
+        private final LongBuffer chunkStarts;
+        private final IntBuffer chunkLastElements;
+
+        Buffers(final LongBuffer chunkStarts, final IntBuffer chunkLastElements) {
+            assert chunkStarts.remaining() == chunkLastElements.remaining() + 1;
+            this.chunkStarts = chunkStarts;
+            this.chunkLastElements = chunkLastElements;
+        }
+
+        @Override
+        int numChunks() {
+            return chunkLastElements.limit();
+        }
+
+        @Override
+        long chunkStart(final int chunk) {
+            return chunkStarts.get(chunk);
+        }
+
+        @Override
+        int chunkLastElement(final int chunk) {
+            return chunkLastElements.get(chunk);
+        }
+    }
+
+    /**
+     * A fixed-width TOC read from the file one entry at a time.
+     */
+    static final class OnDemand extends ChunkToc {
+        private final ByteSource source;
+        private final int numChunks;
+        private final long chunkStartsPos;
+        private final long chunkLastElementsPos;
+
+        OnDemand(final ByteSource source, final long tocPos) throws IOException {
+            this.source = source;
+            numChunks = source.read(tocPos, 4).getInt();
+            chunkStartsPos = tocPos + 4;
+            chunkLastElementsPos = chunkStartsPos + 8L * (numChunks + 1);
+        }
+
+        @Override
+        int numChunks() {
+            return numChunks;
+        }
+
+        @Override
+        long chunkStart(final int chunk) throws IOException {
+            return source.read(chunkStartsPos + 8L * chunk, 8).getLong();
+        }
+
+        @Override
+        int chunkLastElement(final int chunk) throws IOException {
+            return source.read(chunkLastElementsPos + 4L * chunk, 4).getInt();
+        }
+
+        /**
+         * Views the whole TOC at once; without copying if the source is
+         * mapped.
+         */
+        Buffers load() throws IOException {
+            return new Buffers(
+                    source.read(chunkStartsPos, 8 * (numChunks + 1)).asLongBuffer(),
+                    source.read(chunkLastElementsPos, 4 * numChunks).asIntBuffer());
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf.compressed;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How a list's chunk size was chosen: CompressedListWriter.Options can ask
+ * for the chunk size to be tuned on a sample of the list, by compressing it
+ * with several chunk sizes and timing how long a chunk takes to decompress,
+ * which is the cost of a get() that misses the cache. The result is stored
+ * in the list header, and CompressedList.getTuning() returns it.
+ */
+public final class ChunkTuning {
+
+    static final int[] CANDIDATE_CHUNK_SIZES = {256, 512, 1024, 2048, 4096, 8192, 16384, 32768, 65536};
+    // Timed passes over the sample's chunks, after one untimed one. The
+    // fastest counts, as the others were likelier to be interrupted.
+    private static final int DECODE_PASSES = 3;
+
+    public static final class Measurement {
+        public final int chunkSize;
+        // Uncompressed bytes over compressed bytes.
+        public final float compressionRatio;
+        // Time to decompress a chunk, averaged over the sample's chunks.
+        public final float decodeMicros;
+
+        Measurement(final int chunkSize, final float compressionRatio, final float decodeMicros) {
+            this.chunkSize = chunkSize;
+            this.compressionRatio = compressionRatio;
+            this.decodeMicros = decodeMicros;
+        }
+
+        @Override
+        public String toString() {
+            return chunkSize + ": ratio=" + compressionRatio + ", decodeMicros=" + decodeMicros;
+        }
+    }
+
+    public final int chunkSize;
+    public final int maxElementsPerChunk;
+    public final List<Measurement> measurements;
+
+    ChunkTuning(final int chunkSize, final int maxElementsPerChunk, final List<Measurement> measurements) {
+        this.chunkSize = chunkSize;
+        this.maxElementsPerChunk = maxElementsPerChunk;
+        this.measurements = Collections.unmodifiableList(measurements);
+    }
+
+    /**
+     * Measures each candidate chunk size on the sample of serialized
+     * elements, and picks the largest (best compressed) one that decodes
+     * within targetDecodeMicros, or the smallest (fastest) one that
+     * compresses by targetCompressionRatio; whichever target is not 0. If
+     * none meets the target, picks the one that comes closest.
+     */
+    static ChunkTuning tune(final byte[] elements, final int[] elementStarts, final int numElements,
+            final ChunkCodec codec, final int maxElementsPerChunk, final boolean varIntOffsets,
+            final double targetDecodeMicros, final double targetCompressionRatio) throws IOException {
+        final int sampleSize = numElements == 0 ? 0 : elements.length;
+        final List<Measurement> measurements = new ArrayList<Measurement>();
+        for (final int candidate : CANDIDATE_CHUNK_SIZES) {
+            if (candidate > sampleSize && !measurements.isEmpty()) {
+                break;
+            }
+            measurements.add(measure(candidate, elements, elementStarts, numElements, codec,
+                    maxElementsPerChunk, varIntOffsets));
+        }
+
+        Measurement best = null;
+        if (targetDecodeMicros > 0) {
+            for (final Measurement measurement : measurements) {
+                if (best == null || measurement.decodeMicros <= targetDecodeMicros) {
+                    best = measurement;
+                }
+            }
+        } else {
+            for (int m = measurements.size() - 1; m >= 0; --m) {
+                if (best == null || measurements.get(m).compressionRatio >= targetCompressionRatio) {
+                    best = measurements.get(m);
+                }
+            }
+        }
+        return new ChunkTuning(best.chunkSize, maxElementsPerChunk, measurements);
+    }
+
+    private static Measurement measure(final int chunkSize, final byte[] elements,
+            final int[] elementStarts, final int numElements, final ChunkCodec codec,
+            final int maxElementsPerChunk, final boolean varIntOffsets) throws IOException {
+        // Cut the sample the way CompressedListBuilder would.
+        final List<byte[]> compressedChunks = new ArrayList<byte[]>();
+        final List<Integer> chunkLengths = new ArrayList<Integer>();
+        final ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        final DataOutputStream chunkOut = new DataOutputStream(chunk);
+        long compressedBytes = 0;
+        long uncompressedBytes = 0;
+        int first = 0;
+        while (first < numElements) {
+            int end = first;
+            while (end < numElements && (end == first
+                    || elementStarts[end] - elementStarts[first] <= chunkSize && end - first < maxElementsPerChunk)) {
+                ++end;
+            }
+            final int dataEnd = end < numElements ? elementStarts[end] : elements.length;
+            chunk.reset();
+            CompressedListBuilder.layOutChunk(chunkOut, elements, elementStarts, first, end, dataEnd, varIntOffsets);
+            final byte[] compressed = codec.compress(chunk.toByteArray(), 0, chunk.size());
+            compressedChunks.add(compressed);
+            chunkLengths.add(chunk.size());
+            compressedBytes += 4 + compressed.length;
+            uncompressedBytes += chunk.size();
+            first = end;
+        }
+        if (compressedChunks.isEmpty()) {
+            return new Measurement(chunkSize, 1, 0);
+        }
+
+        long nanos = Long.MAX_VALUE;
+        for (int pass = 0; pass <= DECODE_PASSES; ++pass) {
+            final long start = System.nanoTime();
+            for (int c = 0; c < compressedChunks.size(); ++c) {
+                codec.decompress(ByteBuffer.wrap(compressedChunks.get(c)), new byte[chunkLengths.get(c)], 0, chunkLengths.get(c));
+            }
+            if (pass > 0) {
+                nanos = Math.min(nanos, System.nanoTime() - start);
+            }
+        }
+        return new Measurement(chunkSize, (float) uncompressedBytes / compressedBytes,
+                nanos / 1000f / compressedChunks.size());
+    }
+
+    /**
+     * int chunkSize, int maxElementsPerChunk, int numMeasurements, then for
+     * each, int chunkSize, float compressionRatio, float decodeMicros.
+     */
+    void write(final DataOutput out) throws IOException {
+        out.writeInt(chunkSize);
+        out.writeInt(maxElementsPerChunk);
+        out.writeInt(measurements.size());
+        for (final Measurement measurement : measurements) {
+            out.writeInt(measurement.chunkSize);
+            out.writeFloat(measurement.compressionRatio);
+            out.writeFloat(measurement.decodeMicros);
+        }
+    }
+
+    /**
+     * The size of what write() writes with numMeasurements measurements.
+     */
+    static int bytes(final int numMeasurements) {
+        return 12 + 12 * numMeasurements;
+    }
+
+    static ChunkTuning read(final ByteBuffer in) {
+        final int chunkSize = in.getInt();
+        final int maxElementsPerChunk = in.getInt();
+        final int numMeasurements = in.getInt();
+        final List<Measurement> measurements = new ArrayList<Measurement>();
+        for (int m = 0; m < numMeasurements; ++m) {
+            measurements.add(new Measurement(in.getInt(), in.getFloat(), in.getFloat()));
+        }
+        return new ChunkTuning(chunkSize, maxElementsPerChunk, measurements);
+    }
+
+    @Override
+    public String toString() {
+        return "chunkSize=" + chunkSize + ", maxElementsPerChunk=" + maxElementsPerChunk + ", " + measurements;
+    }
+
+}
@@ -14,105 +14,409 @@
 
 package com.hughes.util.raf.compressed;
 
+import com.hughes.util.raf.BufferSerializer;
+import com.hughes.util.raf.ByteSource;
+import com.hughes.util.raf.ByteSourceInputStream;
+import com.hughes.util.raf.FrontCodedStringList;
+import com.hughes.util.raf.MultiGet;
+import com.hughes.util.raf.RAFByteSource;
 import com.hughes.util.raf.Serializer;
+import com.hughes.util.raf.SplittableList;
+import com.hughes.util.raf.TocLoader;
+import com.hughes.util.raf.TocMode;
+import com.hughes.util.raf.VarInt;
 
-import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.lang.ref.SoftReference;
-import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.util.AbstractList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.zip.GZIPInputStream;
 
-public class CompressedList<T> extends AbstractList<T> implements RandomAccess {
+/**
+ * A list stored as a sequence of compressed chunks of elements.
+ * 
+ * The original format starts with the position of a gzipped table of
+ * contents (TOC), which has to be read in full before the list can be used.
+ * Lists written with CompressedListWriter.Options start with
+ * FIXED_WIDTH_TOC_MAGIC instead, followed by the position of an uncompressed
+ * TOC laid out as arrays that can be searched in place:
+ * 
+ * int numChunks, long[numChunks + 1] chunkStarts, int[numChunks] chunkLastElements
+ * 
+ * Lists written with a ChunkCodec start with CODEC_TOC_MAGIC and the TOC
+ * position, then int codecId, int flags, int parameterLength, parameters,
+ * then with FLAG_TUNED, how the chunk size was tuned (see ChunkTuning).
+ * Their chunks are the uncompressed size as an int followed by the codec's
+ * output, rather than gzip streams. With FLAG_VARINT_OFFSETS, a
+ * decompressed chunk is varint numElements, the varint lengths of all but
+ * the last element, then the elements. With FLAG_KEY_INDEX, the TOC is
+ * followed by a FrontCodedStringList of the key of each chunk's first
+ * element, for search().
+ */
+public class CompressedList<T> extends AbstractList<T> implements RandomAccess, SplittableList<T> {
 
-    final RandomAccessFile raf;
-    final Serializer<T> serializer;
+    // Never a valid TOC position, so it tells the two formats apart.
+    static final long FIXED_WIDTH_TOC_MAGIC = 0xC011EC7EDF1C5ED0L;
+    static final long CODEC_TOC_MAGIC = 0xC011EC7EDC0DEC01L;
 
-    final long[] chunkStartPos;
-    final int[] chunkLastElements;
-    final Map<Integer, SoftReference<ChunkContents>> chunkContentsMap = new HashMap<Integer, SoftReference<ChunkContents>>();
+    // Codec header flags.
+    static final int FLAG_TUNED = 1;
+    static final int FLAG_VARINT_OFFSETS = 2;
+    static final int FLAG_KEY_INDEX = 4;
 
+    // Elements between the starts sampled from a chunk's varint lengths.
+    static final int OFFSET_SAMPLING_INTERVAL = 16;
+
+    public static final int DEFAULT_MAX_CACHED_CHUNKS = 64;
+
+    // Consecutive steps to a neighbouring chunk before reading ahead.
+    static final int SEQUENTIAL_STEPS = 2;
+
+    final ByteSource source;
+    final BufferSerializer<T> serializer;
+    // Null for gzipped chunks.
+    final ChunkCodec codec;
+    private final ChunkTuning tuning;
+    private final boolean varIntOffsets;
+    private final boolean hasKeyIndex;
+    // Loaded by the first search().
+    private volatile FrontCodedStringList keyIndex;
+
+    final long tocPos;
+    // Null while a gzipped TOC loads in the background; see getToc().
+    private volatile ChunkToc toc;
+    // -1 until known, which is once the list is opened unless a gzipped TOC
+    // is still loading.
+    private volatile int size = -1;
+    private final Future<ChunkToc> tocFuture;
+    final ChunkCache<ChunkContents> chunkCache = new ChunkCache<ChunkContents>(
+            new ChunkCache.Loader<ChunkContents>() {
+                @Override
+                public ChunkContents load(final int chunk) throws IOException {
+                    return readChunk(chunk);
+                }
+            }, DEFAULT_MAX_CACHED_CHUNKS);
+
+    /**
+     * Gives the key a list is sorted by for each element; see search().
+     */
+    public interface KeyFunction<T> {
+        String key(T t);
+    }
+
+    /**
+     * A decompressed chunk: int numElements, int[numElements] elementStarts,
+     * int size, then the elements, read in place. Or, with varint offsets,
+     * read from the lengths between sampled starts.
+     */
     private static class ChunkContents {
         int firstElement;
-        int[] elementStartPositions;
+        int numElements;
         byte[] decompressedBytes;
-    }
+        // Where the elements start in decompressedBytes.
+        int dataOffset;
+        // With varint offsets, the start of every OFFSET_SAMPLING_INTERVAL'th
+        // element, relative to dataOffset, and where its length is in
+        // decompressedBytes; otherwise null.
+        int[] samples;
 
-    private DataInputStream getInputStream() throws IOException {
-        return new DataInputStream(new GZIPInputStream(Channels.newInputStream(raf.getChannel())));
+        int elementStart(final int relativePosition) {
+            final byte[] b = decompressedBytes;
+            if (samples == null) {
+                final int i = 4 + relativePosition * 4;
+                return dataOffset + ((b[i] & 0xff) << 24 | (b[i + 1] & 0xff) << 16 | (b[i + 2] & 0xff) << 8 | (b[i + 3] & 0xff));
+            }
+            final int block = relativePosition / OFFSET_SAMPLING_INTERVAL;
+            int start = samples[2 * block];
+            int pos = samples[2 * block + 1];
+            for (int e = block * OFFSET_SAMPLING_INTERVAL; e < relativePosition; ++e) {
+                int length = 0;
+                for (int shift = 0;; shift += 7) {
+                    final byte lengthByte = b[pos++];
+                    length |= (lengthByte & 0x7f) << shift;
+                    if (lengthByte >= 0) {
+                        break;
+                    }
+                }
+                start += length;
+            }
+            return dataOffset + start;
+        }
     }
-    
+
+    // Readahead is off while depth is 0.
+    private volatile int readaheadDepth;
+    private volatile Executor readaheadExecutor;
+    // Guarded by itself: the last chunk get() used, and how many steps in a
+    // row went forward (positive) or backward (negative) by one chunk.
+    private final int[] accessPattern = {-1, 0};
+
     int numChunks() {
-        return chunkStartPos.length;
+        return getToc().numChunks();
     }
     
     int tocBytes() {
-        return chunkStartPos.length * 12;
+        return numChunks() * 12;
     }
 
     public CompressedList(final RandomAccessFile raf,
             final Serializer<T> serializer, final long startOffset)
             throws IOException {
-        synchronized (raf) {
-            this.raf = raf;
-            this.serializer = serializer;
-            raf.seek(startOffset);
-            long tocPos = raf.readLong();
+        this(new RAFByteSource(raf), serializer, startOffset, TocMode.EAGER);
+    }
+
+    /**
+     * Reads the list through source, without holding any lock while reading
+     * and decompressing chunks. A gzipped TOC can't be read ON_DEMAND.
+     */
+    public CompressedList(final ByteSource source,
+            final Serializer<T> serializer, final long startOffset,
+            final TocMode tocMode) throws IOException {
+        this(source, BufferSerializer.Wrapper.wrap(serializer), startOffset, tocMode);
+    }
 
-            raf.seek(tocPos);
-            DataInputStream tocIn = getInputStream();
-            final int numChunks = tocIn.readInt();
-            chunkStartPos = new long[numChunks];
-            chunkLastElements = new int[numChunks];
+    /**
+     * Same, but elements are decoded straight from the decompressed chunks.
+     */
+    public CompressedList(final ByteSource source,
+            final BufferSerializer<T> serializer, final long startOffset,
+            final TocMode tocMode) throws IOException {
+        this.source = source;
+        this.serializer = serializer;
+        final long header = source.read(startOffset, 8).getLong();
+        final boolean fixedWidth = header == FIXED_WIDTH_TOC_MAGIC || header == CODEC_TOC_MAGIC;
+        tocPos = fixedWidth ? source.read(startOffset + 8, 8).getLong() : header;
+        if (header == CODEC_TOC_MAGIC) {
+            final ByteBuffer codecHeader = source.read(startOffset + 16, 12);
+            final int codecId = codecHeader.getInt();
+            final int flags = codecHeader.getInt();
+            if ((flags & ~(FLAG_TUNED | FLAG_VARINT_OFFSETS | FLAG_KEY_INDEX)) != 0) {
+                throw new IOException("Unsupported flags: " + flags);
+            }
+            final byte[] parameters = new byte[codecHeader.getInt()];
+            source.read(startOffset + 28, parameters.length).get(parameters);
+            codec = ChunkCodec.forId(codecId, parameters);
+            varIntOffsets = (flags & FLAG_VARINT_OFFSETS) != 0;
+            hasKeyIndex = (flags & FLAG_KEY_INDEX) != 0;
+            if ((flags & FLAG_TUNED) != 0) {
+                final long tuningPos = startOffset + 28 + parameters.length;
+                final int numMeasurements = source.read(tuningPos + 8, 4).getInt();
+                tuning = ChunkTuning.read(source.read(tuningPos, ChunkTuning.bytes(numMeasurements)));
+            } else {
+                tuning = null;
+            }
+        } else {
+            codec = null;
+            tuning = null;
+            varIntOffsets = false;
+            hasKeyIndex = false;
+        }
 
-            for (int c = 0; c < numChunks; ++c) {
-                chunkStartPos[c] = tocIn.readLong();
-                chunkLastElements[c] = tocIn.readInt();
+        switch (tocMode) {
+        case ON_DEMAND:
+            if (!fixedWidth) {
+                throw new IllegalArgumentException("A gzipped TOC can't be read on demand.");
             }
-//            tocIn.close();
+            toc = new ChunkToc.OnDemand(source, tocPos);
+            tocFuture = null;
+            break;
+        case EAGER:
+            toc = loadToc(fixedWidth);
+            tocFuture = null;
+            break;
+        case BACKGROUND:
+            if (fixedWidth) {
+                toc = new ChunkToc.OnDemand(source, tocPos);
+            }
+            tocFuture = TocLoader.load(new Callable<ChunkToc>() {
+                @Override
+                public ChunkToc call() throws IOException {
+                    return toc = loadToc(fixedWidth);
+                }
+            });
+            break;
+        default:
+            throw new IllegalArgumentException(tocMode.toString());
+        }
+        if (toc != null) {
+            size = computeSize(toc);
+        }
+    }
+
+    private ChunkToc loadToc(final boolean fixedWidth) throws IOException {
+        return fixedWidth ? new ChunkToc.OnDemand(source, tocPos).load() : readGzippedToc();
+    }
+
+    private ChunkToc readGzippedToc() throws IOException {
+        DataInputStream tocIn = new DataInputStream(new GZIPInputStream(
+                new ByteSourceInputStream(source, tocPos)));
+        final int numChunks = tocIn.readInt();
+        final long[] chunkStartPos = new long[numChunks + 1];
+        final int[] chunkLastElements = new int[numChunks];
+        for (int c = 0; c < numChunks; ++c) {
+            chunkStartPos[c] = tocIn.readLong();
+            chunkLastElements[c] = tocIn.readInt();
         }
+        chunkStartPos[numChunks] = tocPos;
+        return new ChunkToc.Buffers(LongBuffer.wrap(chunkStartPos), IntBuffer.wrap(chunkLastElements));
+    }
+
+    ChunkToc getToc() {
+        final ChunkToc result = toc;
+        return result != null ? result : TocLoader.await(tocFuture);
     }
 
     private ChunkContents getChunkForElement(int i) throws IOException {
-        for (int c = 0; c < chunkLastElements.length; ++c) {
-            if (i < chunkLastElements[c]) {
-                SoftReference<ChunkContents> chunkContentsRef = chunkContentsMap.get(c);
-                if (chunkContentsRef != null) {
-                    ChunkContents chunkContents = chunkContentsRef.get();
-                    if (chunkContents != null) {
-                        return chunkContents;
-                    }
-                }
-                return readChunk(c);
+        if (i < 0 || i >= size()) {
+            throw new IndexOutOfBoundsException("" + i);
+        }
+        final int c = getToc().findChunk(i);
+        if (readaheadDepth > 0) {
+            readAhead(c);
+        }
+        return chunkCache.get(c);
+    }
 
+    /**
+     * Once get() has stepped through SEQUENTIAL_STEPS neighbouring chunks in
+     * a row in the same direction, decompresses the next depth chunks in
+     * that direction into the chunk cache on executor, so they're ready by
+     * the time they're needed. Any other access pattern stops it. The cache
+     * has to hold at least depth chunks for this to help. A depth of 0, the
+     * default, turns readahead off.
+     */
+    public void setReadahead(final int depth, final Executor executor) {
+        if (depth < 0 || (depth > 0 && executor == null)) {
+            throw new IllegalArgumentException("depth=" + depth + ", executor=" + executor);
+        }
+        readaheadExecutor = executor;
+        readaheadDepth = depth;
+    }
+
+    private void readAhead(final int c) {
+        final int steps;
+        synchronized (accessPattern) {
+            final int lastChunk = accessPattern[0];
+            if (c == lastChunk) {
+                return;
+            }
+            int run = accessPattern[1];
+            if (c == lastChunk + 1) {
+                run = Math.max(run, 0) + 1;
+            } else if (c == lastChunk - 1) {
+                run = Math.min(run, 0) - 1;
+            } else {
+                run = 0;
+            }
+            accessPattern[0] = c;
+            accessPattern[1] = run;
+            steps = run;
+        }
+        if (Math.abs(steps) < SEQUENTIAL_STEPS) {
+            return;
+        }
+        final int direction = steps > 0 ? 1 : -1;
+        final int depth = readaheadDepth;
+        final Executor executor = readaheadExecutor;
+        final int numChunks = numChunks();
+        for (int d = 1; d <= depth; ++d) {
+            final int ahead = c + d * direction;
+            if (ahead < 0 || ahead >= numChunks) {
+                break;
+            }
+            if (chunkCache.contains(ahead)) {
+                continue;
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            chunkCache.get(ahead);
+                        } catch (IOException e) {
+                            // get() will hit it again, and report it then.
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                return;
             }
         }
-        throw new IndexOutOfBoundsException("" + i);
+    }
+
+    /**
+     * Returns how the chunk size was tuned when the list was written, or null
+     * if it wasn't.
+     */
+    public ChunkTuning getTuning() {
+        return tuning;
+    }
+
+    /**
+     * Bounds how many decompressed chunks are kept, least recently used
+     * first out. 0 keeps none.
+     */
+    public void setMaxCachedChunks(final int maxChunks) {
+        chunkCache.setMaxChunks(maxChunks);
     }
 
     private ChunkContents readChunk(int chunkIndex) throws IOException {
-        synchronized (raf) {
-            ChunkContents chunkContents = new ChunkContents();
-            raf.seek(chunkStartPos[chunkIndex]);
-            DataInputStream chunkIn = getInputStream();
-            final int numElements = chunkIn.readInt();
-            chunkContents.elementStartPositions = new int[numElements];
-            for (int e = 0; e < numElements; ++e) {
-                chunkContents.elementStartPositions[e] = chunkIn.readInt();
+        final ChunkToc toc = getToc();
+        final long start = toc.chunkStart(chunkIndex);
+        final long end = toc.chunkStart(chunkIndex + 1);
+        final ByteBuffer compressed = source.read(start, (int) (end - start));
+        final byte[] bytes;
+        if (codec == null) {
+            bytes = ChunkDecoder.get().gunzip(compressed);
+        } else {
+            bytes = new byte[compressed.getInt()];
+            codec.decompress(compressed, bytes, 0, bytes.length);
+        }
+
+        final ByteBuffer chunk = ByteBuffer.wrap(bytes);
+        final ChunkContents chunkContents = new ChunkContents();
+        if (varIntOffsets) {
+            chunkContents.numElements = (int) VarInt.read(chunk);
+            final int[] samples = new int[2 * ((chunkContents.numElements + OFFSET_SAMPLING_INTERVAL - 1) / OFFSET_SAMPLING_INTERVAL)];
+            long lastStart = 0;
+            for (int e = 0; e < chunkContents.numElements; ++e) {
+                if (e % OFFSET_SAMPLING_INTERVAL == 0) {
+                    samples[2 * (e / OFFSET_SAMPLING_INTERVAL)] = (int) lastStart;
+                    samples[2 * (e / OFFSET_SAMPLING_INTERVAL) + 1] = chunk.position();
+                }
+                if (e + 1 < chunkContents.numElements) {
+                    lastStart += VarInt.read(chunk);
+                }
+            }
+            if (lastStart > chunk.remaining()) {
+                throw new IOException("Chunk " + chunkIndex + " has " + chunk.remaining() + " bytes of elements, expected more than " + lastStart);
+            }
+            chunkContents.samples = samples;
+        } else {
+            chunkContents.numElements = chunk.getInt();
+            chunk.position(4 + chunkContents.numElements * 4);
+            final int uncompressedSize = chunk.getInt();
+            if (uncompressedSize != chunk.remaining()) {
+                throw new IOException("Chunk " + chunkIndex + " has " + chunk.remaining() + " bytes of elements, expected " + uncompressedSize);
             }
-            final int uncompressedSize = chunkIn.readInt();
-            chunkContents.firstElement = chunkLastElements[chunkIndex] - numElements;
-            chunkContents.decompressedBytes = new byte[uncompressedSize];
-            chunkIn.read(chunkContents.decompressedBytes);
-            chunkContentsMap.put(chunkIndex, new SoftReference<ChunkContents>(chunkContents));
-    //        chunkIn.close();
-            return chunkContents;
         }
+        chunkContents.firstElement = toc.chunkLastElement(chunkIndex) - chunkContents.numElements;
+        chunkContents.decompressedBytes = bytes;
+        chunkContents.dataOffset = chunk.position();
+        return chunkContents;
     }
 
     @Override
@@ -123,32 +427,196 @@ public class CompressedList<T> extends AbstractList<T> implements RandomAccess {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        
+        return get(chunkContents, i);
+    }
+
+    private T get(final ChunkContents chunkContents, final int i) {
         assert chunkContents != null;
         final int relativePosition = i - chunkContents.firstElement;
         assert relativePosition >= 0;
-        assert relativePosition < chunkContents.elementStartPositions.length;
+        assert relativePosition < chunkContents.numElements;
         
-        final int startPos = chunkContents.elementStartPositions[relativePosition];
-        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(chunkContents.decompressedBytes, startPos, chunkContents.decompressedBytes.length - startPos));
+        final int startPos = chunkContents.elementStart(relativePosition);
+        final ByteBuffer in = ByteBuffer.wrap(chunkContents.decompressedBytes, startPos, chunkContents.decompressedBytes.length - startPos);
         final T result;
         try {
             result = serializer.read(in);
         } catch (IOException e) {
             throw new RuntimeException(e);
-        } finally {
-//            try {
-//                in.close();
-//            } catch (IOException e) {
-//                throw new RuntimeException(e);
-//            }
         }
         return result;
     }
 
+    /**
+     * Binary searches a list sorted by comparator on the keys keyFunction
+     * gives its elements. Returns the index of an element with key or, as
+     * with Collections.binarySearch, (-(insertion point) - 1). If the list
+     * was written with a key index (see CompressedListWriter.write()), the
+     * index gives the one chunk key can be in, and only that chunk is
+     * decompressed. Otherwise each probe can decompress another chunk.
+     */
+    public int search(final String key, final KeyFunction<? super T> keyFunction,
+            final Comparator<? super String> comparator) {
+        int low = 0;
+        int high = size() - 1;
+        ChunkContents chunkContents = null;
+        if (hasKeyIndex && high >= 0) {
+            try {
+                final ChunkToc toc = getToc();
+                final int found = getKeyIndex().binarySearch(key, comparator);
+                if (found >= 0) {
+                    return found == 0 ? 0 : toc.chunkLastElement(found - 1);
+                }
+                // The last chunk whose first key is before key.
+                final int chunk = -(found + 1) - 1;
+                if (chunk < 0) {
+                    return -1;
+                }
+                low = chunk == 0 ? 0 : toc.chunkLastElement(chunk - 1);
+                high = toc.chunkLastElement(chunk) - 1;
+                chunkContents = chunkCache.get(chunk);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final T t = chunkContents != null ? get(chunkContents, mid) : get(mid);
+            final int comparison = comparator.compare(keyFunction.key(t), key);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private FrontCodedStringList getKeyIndex() throws IOException {
+        FrontCodedStringList result = keyIndex;
+        if (result == null) {
+            // It starts where the fixed-width TOC ends.
+            final int numChunks = numChunks();
+            result = FrontCodedStringList.create(source, tocPos + 4 + 8L * (numChunks + 1) + 4L * numChunks);
+            keyIndex = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the elements at indices, in the same order. The indices are
+     * visited in sorted order, so each chunk they need is looked up and
+     * decompressed only once.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> getAll(final int[] indices) {
+        final long[] requests = MultiGet.sortByIndex(indices, size());
+        final Object[] result = new Object[indices.length];
+        ChunkContents chunkContents = null;
+        try {
+            for (final long request : requests) {
+                final int i = MultiGet.index(request);
+                if (chunkContents == null || i >= chunkContents.firstElement + chunkContents.numElements) {
+                    chunkContents = getChunkForElement(i);
+                }
+                result[MultiGet.position(request)] = get(chunkContents, i);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return Arrays.asList((T[]) result);
+    }
+
+    /**
+     * Cuts the list on chunk boundaries into pieces of about the same number
+     * of chunks.
+     */
+    @Override
+    public int[] split(final int maxPieces) {
+        final ChunkToc toc = getToc();
+        final int numChunks = toc.numChunks();
+        if (numChunks == 0) {
+            return new int[] {0, 0};
+        }
+        final int pieces = Math.max(1, Math.min(maxPieces, numChunks));
+        final int[] bounds = new int[pieces + 1];
+        try {
+            for (int p = 1; p <= pieces; ++p) {
+                bounds[p] = toc.chunkLastElement((int) ((long) numChunks * p / pieces) - 1);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bounds;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return iterator(0, size());
+    }
+
+    /**
+     * Decompresses each chunk in the range once. Chunks that aren't already
+     * cached are read without going through the cache, so a scan doesn't
+     * evict the chunks that random access needs.
+     */
+    @Override
+    public Iterator<T> iterator(final int from, final int to) {
+        if (from < 0 || to > size() || from > to) {
+            throw new IndexOutOfBoundsException(from + ".." + to + ", size=" + size());
+        }
+        return new Iterator<T>() {
+            private int next = from;
+            private ChunkContents chunkContents;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public T next() {
+                if (next >= to) {
+                    throw new NoSuchElementException();
+                }
+                if (chunkContents == null || next >= chunkContents.firstElement + chunkContents.numElements) {
+                    try {
+                        final int c = getToc().findChunk(next);
+                        chunkContents = chunkCache.getIfPresent(c);
+                        if (chunkContents == null) {
+                            chunkContents = readChunk(c);
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return get(chunkContents, next++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
     @Override
     public int size() {
-        return chunkLastElements.length == 0 ? 0 : chunkLastElements[chunkLastElements.length - 1];
+        int result = size;
+        if (result < 0) {
+            try {
+                result = size = computeSize(getToc());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return result;
+    }
+
+    private static int computeSize(final ChunkToc toc) throws IOException {
+        return toc.numChunks() == 0 ? 0 : toc.chunkLastElement(toc.numChunks() - 1);
     }
 
     public static <T> CompressedList<T> create(final RandomAccessFile raf,
@@ -157,6 +625,24 @@ public class CompressedList<T> extends AbstractList<T> implements RandomAccess {
         return new CompressedList<T>(raf, serializer, startOffset);
     }
 
+    public static <T> CompressedList<T> create(final ByteSource source,
+            final Serializer<T> serializer, final long startOffset)
+            throws IOException {
+        return new CompressedList<T>(source, serializer, startOffset, TocMode.EAGER);
+    }
+
+    public static <T> CompressedList<T> create(final ByteSource source,
+            final Serializer<T> serializer, final long startOffset,
+            final TocMode tocMode) throws IOException {
+        return new CompressedList<T>(source, serializer, startOffset, tocMode);
+    }
+
+    public static <T> CompressedList<T> create(final ByteSource source,
+            final BufferSerializer<T> serializer, final long startOffset,
+            final TocMode tocMode) throws IOException {
+        return new CompressedList<T>(source, serializer, startOffset, tocMode);
+    }
+
     // /**
     // * Same, but deserialization ignores indices.
     // */
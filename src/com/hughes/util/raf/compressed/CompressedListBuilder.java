@@ -0,0 +1,427 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf.compressed;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import com.hughes.util.raf.FrontCodedStringList;
+import com.hughes.util.raf.Serializer;
+import com.hughes.util.raf.VarInt;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a CompressedList one element at a time, so the list never has to be
+ * in memory. Each chunk is compressed and written as soon as it's full, and
+ * the TOC is written by close(); until then the file doesn't hold a valid
+ * list. Memory use is one chunk (or one per pending chunk, with an
+ * executor) plus 12 bytes of TOC per chunk, and its first key with a key
+ * index.
+ * 
+ * With a dictionary size set, or chunk size tuning, the first elements are
+ * held back until there are enough of them to train the dictionary on or
+ * tune the chunk size with.
+ */
+@TargetApi(Build.VERSION_CODES.KITKAT)
+public final class CompressedListBuilder<T> implements Closeable {
+
+    // Bytes of consecutive elements in each training sample.
+    static final int SAMPLE_SIZE = 256;
+    // Bytes of samples to train on per byte of dictionary.
+    static final int SAMPLES_PER_DICTIONARY_BYTE = 16;
+    // Bytes of elements to tune the chunk size on.
+    static final int TUNING_SAMPLE_BYTES = 1 << 18;
+
+    // Chunks compressing in parallel ahead of the one being written.
+    private static final int MAX_PENDING_CHUNKS = 4 * Runtime.getRuntime().availableProcessors();
+
+    /**
+     * A ByteArrayOutputStream whose bytes can be read in place.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    private final RandomAccessFile raf;
+    private final Serializer<T> serializer;
+    private int chunkSize;
+    private final int maxElementsPerChunk;
+    private final boolean varIntOffsets;
+    private final CompressedList.KeyFunction<? super T> keyFunction;
+    private final double targetDecodeMicros;
+    private final double targetCompressionRatio;
+    private ChunkTuning tuning;
+    private final Executor executor;
+    private final boolean gzippedToc;
+    private final long startLocation;
+    private ChunkCodec codec;
+    private final int dictionarySize;
+    // Bytes of elements to hold back for training and tuning, 0 once chunks
+    // are being written.
+    private int heldBackBytes;
+    // With a key function, the keys of the held back elements, then the key
+    // of the first element of each chunk.
+    private List<String> heldBackKeys = new ArrayList<String>();
+    private final List<String> chunkFirstKeys = new ArrayList<String>();
+
+    // The serialized elements of the current chunk.
+    private final Buffer elements = new Buffer();
+    private final DataOutputStream elementsOut = new DataOutputStream(elements);
+    private int[] elementStarts = new int[64];
+    private int numElements;
+    // Reused to lay out chunks compressed on this thread.
+    private final Buffer chunk = new Buffer();
+    private final DataOutputStream chunkOut = new DataOutputStream(chunk);
+
+    private final Deque<FutureTask<byte[]>> pending = new ArrayDeque<FutureTask<byte[]>>();
+    private long[] chunkStarts = new long[16];
+    private int[] chunkLastElements = new int[16];
+    // Chunks cut, and chunks written so far, which can lag with an executor.
+    private int numChunks;
+    private int numChunksWritten;
+    private boolean closed;
+
+    CompressedListBuilder(final RandomAccessFile raf, final Serializer<T> serializer,
+            final CompressedListWriter.Options options, final ChunkCodec codec,
+            final int dictionarySize, final boolean gzippedToc,
+            final CompressedList.KeyFunction<? super T> keyFunction) throws IOException {
+        if (dictionarySize > 0 && codec != null && codec.id() != ChunkCodec.DEFLATE_ID) {
+            throw new IllegalArgumentException("Dictionaries need deflate, not codec " + codec.id());
+        }
+        this.raf = raf;
+        this.serializer = serializer;
+        if (gzippedToc && (options.tuning() || options.varIntOffsets || keyFunction != null)) {
+            throw new IllegalArgumentException("Can't record tuning, varint offsets or a key index with a gzipped TOC.");
+        }
+        this.chunkSize = options.chunkSize;
+        this.maxElementsPerChunk = options.maxElementsPerChunk;
+        this.varIntOffsets = options.varIntOffsets;
+        this.keyFunction = keyFunction;
+        this.targetDecodeMicros = options.targetDecodeMicros;
+        this.targetCompressionRatio = options.targetCompressionRatio;
+        this.executor = options.executor;
+        this.gzippedToc = gzippedToc;
+        this.codec = codec == null && (options.tuning() || options.varIntOffsets || keyFunction != null)
+                ? ChunkCodec.DEFLATE : codec;
+        this.dictionarySize = dictionarySize;
+        startLocation = raf.getFilePointer();
+        heldBackBytes = Math.max(dictionarySize * SAMPLES_PER_DICTIONARY_BYTE,
+                options.tuning() ? TUNING_SAMPLE_BYTES : 0);
+        if (heldBackBytes == 0) {
+            writeHeader();
+        }
+    }
+
+    public void add(final T t) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Already closed.");
+        }
+        if (heldBackBytes == 0 && chunkFull()) {
+            cutChunk();
+        }
+        if (keyFunction != null) {
+            if (heldBackBytes > 0) {
+                heldBackKeys.add(keyFunction.key(t));
+            } else if (numElements == 0) {
+                chunkFirstKeys.add(keyFunction.key(t));
+            }
+        }
+        addElementStart(elements.size());
+        serializer.write(elementsOut, t);
+        elementsOut.flush();
+        if (heldBackBytes > 0 && elements.size() >= heldBackBytes) {
+            startChunks();
+        }
+    }
+
+    public void addAll(final Iterator<? extends T> iterator) throws IOException {
+        while (iterator.hasNext()) {
+            add(iterator.next());
+        }
+    }
+
+    /**
+     * Writes the last chunk and the TOC, and leaves the file pointer after
+     * the list.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (heldBackBytes > 0) {
+                startChunks();
+            }
+            cutChunk();
+            while (!pending.isEmpty()) {
+                writeChunk(pending.removeFirst());
+            }
+        } finally {
+            for (final FutureTask<byte[]> task : pending) {
+                task.cancel(false);
+            }
+        }
+        final long tocPos = raf.getFilePointer();
+        if (gzippedToc) {
+            writeGzippedToc();
+        } else {
+            writeFixedWidthToc(tocPos);
+            if (keyFunction != null) {
+                FrontCodedStringList.write(raf, chunkFirstKeys.iterator(), FrontCodedStringList.DEFAULT_BLOCK_SIZE);
+            }
+        }
+
+        final long endPos = raf.getFilePointer();
+        raf.seek(gzippedToc ? startLocation : startLocation + 8);
+        raf.writeLong(tocPos);
+        raf.seek(endPos);
+    }
+
+    private void writeHeader() throws IOException {
+        if (gzippedToc) {
+            raf.writeLong(0); // placeholder for tocPos
+            return;
+        }
+        raf.writeLong(codec == null ? CompressedList.FIXED_WIDTH_TOC_MAGIC : CompressedList.CODEC_TOC_MAGIC);
+        raf.writeLong(0); // placeholder for tocPos
+        if (codec != null) {
+            final byte[] parameters = codec.parameters();
+            raf.writeInt(codec.id());
+            raf.writeInt((tuning == null ? 0 : CompressedList.FLAG_TUNED)
+                    | (varIntOffsets ? CompressedList.FLAG_VARINT_OFFSETS : 0)
+                    | (keyFunction != null ? CompressedList.FLAG_KEY_INDEX : 0));
+            raf.writeInt(parameters.length);
+            raf.write(parameters);
+            if (tuning != null) {
+                tuning.write(raf);
+            }
+        }
+    }
+
+    /**
+     * Trains the dictionary on the elements held back so far and tunes the
+     * chunk size with them, then writes the header and chunks them.
+     */
+    private void startChunks() throws IOException {
+        final byte[] heldBack = elements.toByteArray();
+        final int[] heldBackStarts = Arrays.copyOf(elementStarts, numElements);
+        if (dictionarySize > 0) {
+            final int trainingBytes = dictionarySize * SAMPLES_PER_DICTIONARY_BYTE;
+            final List<byte[]> samples = new ArrayList<byte[]>();
+            int sampleStart = 0;
+            for (int e = 1; e <= heldBackStarts.length && sampleStart < trainingBytes; ++e) {
+                final int end = e < heldBackStarts.length ? heldBackStarts[e] : heldBack.length;
+                if (end - sampleStart >= SAMPLE_SIZE || e == heldBackStarts.length) {
+                    samples.add(Arrays.copyOfRange(heldBack, sampleStart, end));
+                    sampleStart = end;
+                }
+            }
+            codec = ChunkCodec.deflate(Deflater.DEFAULT_COMPRESSION, DictionaryTrainer.train(samples, dictionarySize));
+        }
+        if (targetDecodeMicros > 0 || targetCompressionRatio > 0) {
+            tuning = ChunkTuning.tune(heldBack, heldBackStarts, heldBackStarts.length, codec,
+                    maxElementsPerChunk, varIntOffsets, targetDecodeMicros, targetCompressionRatio);
+            chunkSize = tuning.chunkSize;
+        }
+        heldBackBytes = 0;
+        writeHeader();
+
+        elements.reset();
+        numElements = 0;
+        for (int e = 0; e < heldBackStarts.length; ++e) {
+            if (chunkFull()) {
+                cutChunk();
+            }
+            if (keyFunction != null && numElements == 0) {
+                chunkFirstKeys.add(heldBackKeys.get(e));
+            }
+            final int end = e + 1 < heldBackStarts.length ? heldBackStarts[e + 1] : heldBack.length;
+            addElementStart(elements.size());
+            elements.write(heldBack, heldBackStarts[e], end - heldBackStarts[e]);
+        }
+        heldBackKeys = null;
+    }
+
+    /**
+     * Returns how the chunk size was tuned, or null if it wasn't, or hasn't
+     * been yet.
+     */
+    public ChunkTuning getTuning() {
+        return tuning;
+    }
+
+    private boolean chunkFull() {
+        return elements.size() > chunkSize || numElements >= maxElementsPerChunk;
+    }
+
+    private void addElementStart(final int start) {
+        if (numElements == elementStarts.length) {
+            elementStarts = Arrays.copyOf(elementStarts, numElements * 2);
+        }
+        elementStarts[numElements++] = start;
+    }
+
+    /**
+     * Lays out the current chunk and starts compressing it.
+     */
+    private void cutChunk() throws IOException {
+        if (numChunks == chunkLastElements.length) {
+            chunkLastElements = Arrays.copyOf(chunkLastElements, numChunks * 2);
+        }
+        chunkLastElements[numChunks] = (numChunks == 0 ? 0 : chunkLastElements[numChunks - 1]) + numElements;
+        ++numChunks;
+
+        chunk.reset();
+        layOutChunk(chunkOut, elements.array(), elementStarts, 0, numElements, elements.size(), varIntOffsets);
+        chunkOut.flush();
+        elements.reset();
+        numElements = 0;
+
+        if (executor == null) {
+            writeChunk(compress(chunk.array(), chunk.size(), codec));
+            return;
+        }
+        final byte[] chunkBytes = chunk.toByteArray();
+        final ChunkCodec codec = this.codec;
+        final FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                return compress(chunkBytes, chunkBytes.length, codec);
+            }
+        });
+        executor.execute(task);
+        pending.add(task);
+        while (pending.size() > MAX_PENDING_CHUNKS) {
+            writeChunk(pending.removeFirst());
+        }
+    }
+
+    /**
+     * Lays out elements first to end, whose data runs from elementStarts[first]
+     * to dataEnd, as a chunk: int numElements, int[] elementStarts (relative
+     * to the first), int size, elements. With varIntOffsets it's varint
+     * numElements, the varint lengths of all but the last element, elements.
+     */
+    static void layOutChunk(final DataOutputStream out, final byte[] elements,
+            final int[] elementStarts, final int first, final int end, final int dataEnd,
+            final boolean varIntOffsets) throws IOException {
+        final int dataStart = end > first ? elementStarts[first] : dataEnd;
+        if (varIntOffsets) {
+            VarInt.write(out, end - first);
+            for (int e = first + 1; e < end; ++e) {
+                VarInt.write(out, elementStarts[e] - elementStarts[e - 1]);
+            }
+        } else {
+            out.writeInt(end - first);
+            for (int e = first; e < end; ++e) {
+                out.writeInt(elementStarts[e] - dataStart);
+            }
+            out.writeInt(dataEnd - dataStart);
+        }
+        out.write(elements, dataStart, dataEnd - dataStart);
+    }
+
+    /**
+     * With a codec, the chunk is its uncompressed size followed by the
+     * codec's output; without one, it's gzipped.
+     */
+    private static byte[] compress(final byte[] chunk, final int length, final ChunkCodec codec) throws IOException {
+        if (codec != null) {
+            final byte[] compressed = codec.compress(chunk, 0, length);
+            final byte[] result = new byte[4 + compressed.length];
+            result[0] = (byte) (length >>> 24);
+            result[1] = (byte) (length >>> 16);
+            result[2] = (byte) (length >>> 8);
+            result[3] = (byte) length;
+            System.arraycopy(compressed, 0, result, 4, compressed.length);
+            return result;
+        }
+        return ChunkEncoder.get().gzip(chunk, 0, length);
+    }
+
+    private void writeChunk(final FutureTask<byte[]> task) throws IOException {
+        try {
+            writeChunk(task.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted compressing chunk " + numChunksWritten);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (RuntimeException) cause;
+        }
+    }
+
+    private void writeChunk(final byte[] compressedBytes) throws IOException {
+        if (numChunksWritten == chunkStarts.length) {
+            chunkStarts = Arrays.copyOf(chunkStarts, numChunksWritten * 2);
+        }
+        chunkStarts[numChunksWritten++] = raf.getFilePointer();
+        raf.write(compressedBytes);
+    }
+
+    private void writeGzippedToc() throws IOException {
+        DataOutputStream tocOut = new DataOutputStream(new GZIPOutputStream(
+                Channels.newOutputStream(raf.getChannel()), true));
+        tocOut.writeInt(numChunks);
+        for (int i = 0; i < numChunks; ++i) {
+            tocOut.writeLong(chunkStarts[i]);
+            tocOut.writeInt(chunkLastElements[i]);
+        }
+        tocOut.flush();
+    }
+
+    private void writeFixedWidthToc(final long tocPos) throws IOException {
+        final ByteArrayOutputStream tocBytes = new ByteArrayOutputStream();
+        final DataOutputStream tocOut = new DataOutputStream(tocBytes);
+        tocOut.writeInt(numChunks);
+        for (int i = 0; i < numChunks; ++i) {
+            tocOut.writeLong(chunkStarts[i]);
+        }
+        tocOut.writeLong(tocPos);
+        for (int i = 0; i < numChunks; ++i) {
+            tocOut.writeInt(chunkLastElements[i]);
+        }
+        tocOut.close();
+        raf.write(tocBytes.toByteArray());
+    }
+
+}
@@ -3,20 +3,43 @@ package com.hughes.util.raf.compressed;
 import android.annotation.TargetApi;
 import android.os.Build;
 
+import com.hughes.util.raf.ByteSource;
+import com.hughes.util.raf.ChannelByteSource;
+import com.hughes.util.raf.MappedByteSource;
+import com.hughes.util.raf.ParallelScan;
 import com.hughes.util.raf.Serializer;
+import com.hughes.util.raf.TocMode;
 
 import junit.framework.TestCase;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
 
 @TargetApi(Build.VERSION_CODES.KITKAT)
 public class CompressedListTest extends TestCase {
 
+    // Offset of the gzip header's OS byte, which GZIPOutputStream sets
+    // differently on different JDKs.
+    private static final int GZIP_OS = 9;
+
     public void testEmpty() throws IOException {
         List<Long> list = new ArrayList<Long>();
 
@@ -109,4 +132,745 @@ public class CompressedListTest extends TestCase {
         }
     }
 
+    public void testByteSources() throws IOException {
+        Random random = new Random(0);
+        List<Long> list = new ArrayList<Long>();
+        for (int i = 0; i < 10000; ++i) {
+            list.add((long) random.nextInt(512));
+        }
+
+        final File file = File.createTempFile("testMapped", "");
+        file.deleteOnExit();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.writeInt(12345);
+        CompressedListWriter.write(raf, list, Serializer.LONG, 777);
+
+        assertEquals(list, CompressedList.create(MappedByteSource.map(raf), Serializer.LONG, 4));
+        assertEquals(list, CompressedList.create(ChannelByteSource.create(raf), Serializer.LONG, 4));
+
+        final CompressedList<Long> compressedList = CompressedList.create(raf, Serializer.LONG, 4);
+        final int[] indices = new int[500];
+        final List<Long> expected = new ArrayList<Long>();
+        for (int i = 0; i < indices.length; ++i) {
+            indices[i] = random.nextInt(list.size());
+            expected.add(list.get(indices[i]));
+        }
+        assertEquals(expected, compressedList.getAll(indices));
+    }
+
+    public void testTocModes() throws IOException {
+        Random random = new Random(0);
+        List<Long> list = new ArrayList<Long>();
+        for (int i = 0; i < 10000; ++i) {
+            list.add((long) random.nextInt(512));
+        }
+
+        final File file = File.createTempFile("testTocModes", "");
+        file.deleteOnExit();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final long fixedWidthStart = raf.getFilePointer();
+        CompressedListWriter.write(raf, list, Serializer.LONG, new CompressedListWriter.Options().setChunkSize(777));
+        final long emptyStart = raf.getFilePointer();
+        CompressedListWriter.write(raf, new ArrayList<Long>(), Serializer.LONG, new CompressedListWriter.Options());
+        // The gzipped TOC isn't terminated, so it has to come last.
+        final long gzippedStart = raf.getFilePointer();
+        CompressedListWriter.write(raf, list, Serializer.LONG, 777);
+
+        for (final ByteSource source : Arrays.asList(MappedByteSource.map(raf), ChannelByteSource.create(raf))) {
+            for (final TocMode tocMode : TocMode.values()) {
+                final CompressedList<Long> fixedWidth = CompressedList.create(source, Serializer.LONG, fixedWidthStart, tocMode);
+                assertEquals(103, fixedWidth.numChunks());
+                assertEquals(list, fixedWidth);
+                assertEquals(0, CompressedList.create(source, Serializer.LONG, emptyStart, tocMode).size());
+                if (tocMode != TocMode.ON_DEMAND) {
+                    assertEquals(list, CompressedList.create(source, Serializer.LONG, gzippedStart, tocMode));
+                }
+            }
+            try {
+                CompressedList.create(source, Serializer.LONG, gzippedStart, TocMode.ON_DEMAND);
+                fail();
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    public void testConcurrentReads() throws Exception {
+        Random random = new Random(0);
+        final List<Long> list = new ArrayList<Long>();
+        for (int i = 0; i < 10000; ++i) {
+            list.add((long) random.nextInt(512));
+        }
+
+        final File file = File.createTempFile("testConcurrentReads", "");
+        file.deleteOnExit();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        CompressedListWriter.write(raf, list, Serializer.LONG, new CompressedListWriter.Options().setChunkSize(777));
+
+        final CompressedList<Long> compressedList = CompressedList.create(ChannelByteSource.create(raf), Serializer.LONG, 0);
+        compressedList.setMaxCachedChunks(10);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < list.size(); ++i) {
+                            final int index = (i * 7 + offset) % list.size();
+                            assertEquals(list.get(index), compressedList.get(index));
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+    }
+
+    public void testReadsOnCacheHit() throws Exception {
+        final List<Long> list = new ArrayList<Long>();
+        for (int i = 0; i < 10000; ++i) {
+            list.add((long) i);
+        }
+        final File file = File.createTempFile("testReadsOnCacheHit", "");
+        file.deleteOnExit();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        CompressedListWriter.write(raf, list, Serializer.LONG, new CompressedListWriter.Options().setChunkSize(777));
+
+        final ByteSource channel = ChannelByteSource.create(raf);
+        final AtomicInteger reads = new AtomicInteger();
+        final ByteSource counting = new ByteSource() {
+            @Override
+            public ByteBuffer read(final long position, final int length) throws IOException {
+                reads.incrementAndGet();
+                return channel.read(position, length);
+            }
+
+            @Override
+            public long length() throws IOException {
+                return channel.length();
+            }
+        };
+        final CompressedList<Long> compressedList = CompressedList.create(counting, Serializer.LONG, 0, TocMode.ON_DEMAND);
+        final int opened = reads.get();
+        assertEquals(list.size(), compressedList.size());
+        assertEquals(opened, reads.get());
+        assertEquals(list.get(5000), compressedList.get(5000));
+        // A cache hit reads only the TOC entries that find the chunk, not the
+        // size again.
+        int before = reads.get();
+        compressedList.getToc().findChunk(5000);
+        final int findReads = reads.get() - before;
+        before = reads.get();
+        assertEquals(list.get(5000), compressedList.get(5000));
+        assertEquals(findReads, reads.get() - before);
+        assertEquals(list.size(), compressedList.size());
+    }
+
+    public void testChunkCache() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final ChunkCache<String> cache = new ChunkCache<String>(new ChunkCache.Loader<String>() {
+            @Override
+            public String load(final int chunk) throws IOException {
+                loads.incrementAndGet();
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return "chunk" + chunk;
+            }
+        }, 8);
+
+        // Threads that miss on the same chunk share one load, whether or not
+        // the chunk is cached afterwards.
+        missConcurrently(cache, 3);
+        assertEquals(1, loads.get());
+        cache.setMaxChunks(0);
+        missConcurrently(cache, 4);
+        assertEquals(2, loads.get());
+        assertFalse(cache.contains(4));
+
+        // The bound is over all chunks.
+        cache.setMaxChunks(2);
+        assertEquals("chunk3", cache.get(3));
+        assertEquals("chunk11", cache.get(11));
+        assertEquals("chunk3", cache.get(3));
+        assertEquals(4, loads.get());
+        assertEquals("chunk12", cache.get(12));
+        assertTrue(cache.contains(3));
+        assertFalse(cache.contains(11));
+        cache.setMaxChunks(1);
+        assertFalse(cache.contains(3));
+        assertEquals("chunk12", cache.getIfPresent(12));
+        assertNull(cache.getIfPresent(3));
+    }
+
+    private static void missConcurrently(final ChunkCache<String> cache, final int chunk) throws InterruptedException {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        assertEquals("chunk" + chunk, cache.get(chunk));
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+    }
+
+    public void testCodecs() throws IOException {
+        Random random = new Random(0);
+        List<String> list = new ArrayList<String>();
+        for (int i = 0; i < 5000; ++i) {
+            list.add("element" + random.nextInt(1000) + (i % 7 == 0 ? "xxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxx" : ""));
+        }
+        ChunkCodec.register(1000, new ChunkCodec.Factory() {
+            @Override
+            public ChunkCodec create(final byte[] parameters) {
+                assertEquals("params", new String(parameters));
+                return new ChunkCodec() {
+                    @Override
+                    public int id() {
+                        return 1000;
+                    }
+
+                    @Override
+                    public byte[] parameters() {
+                        return "params".getBytes();
+                    }
+
+                    @Override
+                    public byte[] compress(byte[] in, int offset, int length) throws IOException {
+                        return STORE.compress(in, offset, length);
+                    }
+
+                    @Override
+                    public void decompress(ByteBuffer in, byte[] out, int offset, int length) throws IOException {
+                        STORE.decompress(in, out, offset, length);
+                    }
+                };
+            }
+        });
+        try {
+            final File file = File.createTempFile("testCodecs", "");
+            file.deleteOnExit();
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            final List<ChunkCodec> codecs = Arrays.asList(ChunkCodec.STORE, ChunkCodec.DEFLATE, ChunkCodec.LZ,
+                    ChunkCodec.forId(1000, "params".getBytes()));
+            final long[] starts = new long[codecs.size() + 1];
+            for (int c = 0; c < codecs.size(); ++c) {
+                starts[c] = raf.getFilePointer();
+                CompressedListWriter.write(raf, list, Serializer.STRING, new CompressedListWriter.Options().setCodec(codecs.get(c)));
+            }
+            starts[codecs.size()] = raf.getFilePointer();
+            final long stored = starts[1] - starts[0];
+            final long deflated = starts[2] - starts[1];
+            final long lz = starts[3] - starts[2];
+            assertTrue(deflated < lz);
+            assertTrue(lz < stored);
+            assertEquals(stored, starts[4] - starts[3] - "params".length());
+
+            for (final ByteSource source : Arrays.asList(MappedByteSource.map(raf), ChannelByteSource.create(raf))) {
+                for (int c = 0; c < codecs.size(); ++c) {
+                    assertEquals(list, CompressedList.create(source, Serializer.STRING, starts[c], TocMode.ON_DEMAND));
+                }
+            }
+        } finally {
+            ChunkCodec.unregister(1000);
+        }
+    }
+
+    public void testLzCodec() throws IOException {
+        final Random random = new Random(0);
+        final List<byte[]> inputs = new ArrayList<byte[]>();
+        inputs.add(new byte[0]);
+        inputs.add(new byte[] {1, 2, 3});
+        inputs.add(new byte[100000]);
+        final byte[] text = new byte[20000];
+        for (int i = 0; i < text.length; ++i) {
+            text[i] = (byte) "abcdefgh ".charAt(random.nextInt(random.nextInt(9) + 1));
+        }
+        inputs.add(text);
+        final byte[] noise = new byte[5000];
+        random.nextBytes(noise);
+        inputs.add(noise);
+
+        for (final byte[] input : inputs) {
+            final byte[] compressed = ChunkCodec.LZ.compress(input, 0, input.length);
+            final byte[] output = new byte[input.length + 2];
+            ChunkCodec.LZ.decompress(ByteBuffer.wrap(compressed), output, 1, input.length);
+            assertTrue(Arrays.equals(input, Arrays.copyOfRange(output, 1, input.length + 1)));
+            try {
+                ChunkCodec.LZ.decompress(ByteBuffer.wrap(compressed), output, 0, input.length + 1);
+                fail();
+            } catch (IOException e) {
+            }
+        }
+        assertTrue(ChunkCodec.LZ.compress(new byte[100000], 0, 100000).length < 1000);
+    }
+
+    public void testTrainedDictionary() throws IOException {
+        Random random = new Random(0);
+        final String[] words = {"house", "garden", "dictionary", "translation", "the ", "noun", "verb", "adjective"};
+        List<String> list = new ArrayList<String>();
+        for (int i = 0; i < 20000; ++i) {
+            final StringBuilder entry = new StringBuilder();
+            for (int w = 0; w < 4; ++w) {
+                entry.append(words[random.nextInt(words.length)]).append(random.nextInt(10));
+            }
+            list.add(entry.toString());
+        }
+
+        final File file = File.createTempFile("testTrainedDictionary", "");
+        file.deleteOnExit();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        CompressedListWriter.write(raf, list, Serializer.STRING, new CompressedListWriter.Options().setChunkSize(512).setCodec(ChunkCodec.DEFLATE));
+        final long plainSize = raf.getFilePointer();
+        CompressedListWriter.write(raf, list, Serializer.STRING, new CompressedListWriter.Options().setChunkSize(256).setDictionarySize(4096));
+        final long dictionarySize = raf.getFilePointer() - plainSize;
+        assertTrue(dictionarySize + " vs " + plainSize, dictionarySize < plainSize);
+
+        for (final ByteSource source : Arrays.asList(MappedByteSource.map(raf), ChannelByteSource.create(raf))) {
+            final CompressedList<String> compressedList = CompressedList.create(source, Serializer.STRING, plainSize, TocMode.ON_DEMAND);
+            assertEquals(ChunkCodec.DEFLATE_DICTIONARY_ID, compressedList.codec.id());
+            assertEquals(list, compressedList);
+        }
+
+        try {
+            CompressedListWriter.write(raf, list, Serializer.STRING, new CompressedListWriter.Options().setCodec(ChunkCodec.LZ).setDictionarySize(4096));
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testParallelWrite() throws IOException {
+        Random random = new Random(0);
+        List<String> list = new ArrayList<String>();
+        for (int i = 0; i < 20000; ++i) {
+            list.add("element" + random.nextInt(1000));
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (final CompressedListWriter.Options options : Arrays.asList(
+                    new CompressedListWriter.Options().setChunkSize(100),
+                    new CompressedListWriter.Options().setCodec(ChunkCodec.LZ),
+                    new CompressedListWriter.Options().setChunkSize(512).setDictionarySize(1024))) {
+                final File serialFile = File.createTempFile("testParallelWrite", "");
+                serialFile.deleteOnExit();
+                final RandomAccessFile serialRaf = new RandomAccessFile(serialFile, "rw");
+                CompressedListWriter.write(serialRaf, list, Serializer.STRING, options);
+
+                final File parallelFile = File.createTempFile("testParallelWrite", "");
+                parallelFile.deleteOnExit();
+                final RandomAccessFile parallelRaf = new RandomAccessFile(parallelFile, "rw");
+                CompressedListWriter.write(parallelRaf, list, Serializer.STRING, options.setExecutor(executor));
+
+                final byte[] serialBytes = new byte[(int) serialRaf.length()];
+                serialRaf.seek(0);
+                serialRaf.readFully(serialBytes);
+                final byte[] parallelBytes = new byte[(int) parallelRaf.length()];
+                parallelRaf.seek(0);
+                parallelRaf.readFully(parallelBytes);
+                assertTrue(Arrays.equals(serialBytes, parallelBytes));
+                assertEquals(list, CompressedList.create(parallelRaf, Serializer.STRING, 0));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testBuilder() throws IOException {
+        Random random = new Random(0);
+        final List<String> list = new ArrayList<String>();
+        for (int i = 0; i < 20000; ++i) {
+            list.add("element" + random.nextInt(1000));
+        }
+
+        final File file = File.createTempFile("testBuilder", "");
+        file.deleteOnExit();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final List<Long> starts = new ArrayList<Long>();
+        try {
+            for (final CompressedListWriter.Options options : Arrays.asList(
+                    new CompressedListWriter.Options().setChunkSize(100),
+                    new CompressedListWriter.Options().setCodec(ChunkCodec.LZ).setExecutor(executor),
+                    new CompressedListWriter.Options().setChunkSize(512).setDictionarySize(1024),
+                    new CompressedListWriter.Options().setDictionarySize(1 << 20))) {
+                starts.add(raf.getFilePointer());
+                final CompressedListBuilder<String> builder = CompressedListWriter.builder(raf, Serializer.STRING, options);
+                builder.add(list.get(0));
+                builder.addAll(list.subList(1, list.size()).iterator());
+                builder.close();
+                builder.close();
+                try {
+                    builder.add("too late");
+                    fail();
+                } catch (IllegalStateException e) {
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        raf.writeUTF("end");
+
+        for (final long start : starts) {
+            assertEquals(list, CompressedList.create(MappedByteSource.map(raf), Serializer.STRING, start, TocMode.ON_DEMAND));
+        }
+        raf.seek(raf.length() - 5);
+        assertEquals("end", raf.readUTF());
+    }
+
+    public void testChunkDecoder() throws IOException {
+        final byte[] input = new byte[50000];
+        new Random(0).nextBytes(input);
+        Arrays.fill(input, 1000, 40000, (byte) 7);
+        final ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        final GZIPOutputStream gzipOut = new GZIPOutputStream(gzipped);
+        gzipOut.write(input);
+        gzipOut.close();
+
+        final byte[] compressed = gzipped.toByteArray();
+        assertTrue(Arrays.equals(input, ChunkDecoder.get().gunzip(ByteBuffer.wrap(compressed))));
+        // The decoder's buffers are reused.
+        assertTrue(Arrays.equals(input, ChunkDecoder.get().gunzip(ByteBuffer.wrap(compressed))));
+        compressed[compressed.length - 6] ^= 1;
+        try {
+            ChunkDecoder.get().gunzip(ByteBuffer.wrap(compressed));
+            fail();
+        } catch (IOException e) {
+        }
+        try {
+            ChunkDecoder.get().gunzip(ByteBuffer.wrap(input));
+            fail();
+        } catch (IOException e) {
+        }
+    }
+
+    public void testChunkEncoder() throws IOException {
+        final Random random = new Random(0);
+        for (final int length : new int[] {0, 1, 5000, 100000}) {
+            final byte[] input = new byte[length];
+            for (int i = 0; i < length; ++i) {
+                input[i] = (byte) ('a' + random.nextInt(4));
+            }
+            final ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+            final GZIPOutputStream gzipOut = new GZIPOutputStream(gzipped);
+            gzipOut.write(input);
+            gzipOut.close();
+            // Twice, to reuse the Deflater.
+            for (int pass = 0; pass < 2; ++pass) {
+                final byte[] expected = gzipped.toByteArray();
+                final byte[] actual = ChunkEncoder.get().gzip(input, 0, length);
+                expected[GZIP_OS] = actual[GZIP_OS];
+                assertTrue(Arrays.equals(expected, actual));
+                assertTrue(Arrays.equals(input, ChunkDecoder.get().gunzip(ByteBuffer.wrap(actual))));
+            }
+
+            for (final ChunkCodec codec : Arrays.asList(ChunkCodec.deflate(1), ChunkCodec.DEFLATE,
+                    ChunkCodec.deflate(9, "aabbccdd".getBytes()), ChunkCodec.deflate(1))) {
+                final byte[] compressed = codec.compress(input, 0, length);
+                final byte[] output = new byte[length];
+                codec.decompress(ByteBuffer.wrap(compressed), output, 0, length);
+                assertTrue(Arrays.equals(input, output));
+            }
+        }
+        try {
+            ChunkCodec.deflate(10);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testParallelScan() throws Exception {
+        Random random = new Random(0);
+        final List<Long> list = new ArrayList<Long>();
+        for (int i = 0; i < 10000; ++i) {
+            list.add((long) random.nextInt(512));
+        }
+
+        final File file = File.createTempFile("testParallelScan", "");
+        file.deleteOnExit();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        CompressedListWriter.write(raf, list, Serializer.LONG, new CompressedListWriter.Options().setChunkSize(777));
+        final CompressedList<Long> compressedList = CompressedList.create(MappedByteSource.map(raf), Serializer.LONG, 0);
+
+        final int[] bounds = compressedList.split(10);
+        assertEquals(11, bounds.length);
+        assertEquals(0, bounds[0]);
+        assertEquals(list.size(), bounds[10]);
+        for (int p = 1; p < bounds.length; ++p) {
+            assertTrue(bounds[p - 1] < bounds[p]);
+            // Each piece ends with a chunk.
+            final ChunkToc toc = compressedList.getToc();
+            assertEquals(bounds[p], toc.chunkLastElement(toc.findChunk(bounds[p] - 1)));
+        }
+        assertEquals(compressedList.numChunks() + 1, compressedList.split(1000).length);
+        assertEquals(list.subList(1234, 5678), copy(compressedList.iterator(1234, 5678)));
+
+        final AtomicIntegerArray visits = new AtomicIntegerArray(list.size());
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ParallelScan.forEach(compressedList, executor, 4, new ParallelScan.Visitor<Long>() {
+                @Override
+                public void visit(final int index, final Long t) {
+                    assertEquals(list.get(index), t);
+                    visits.incrementAndGet(index);
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+        for (int i = 0; i < list.size(); ++i) {
+            assertEquals(1, visits.get(i));
+        }
+    }
+
+    private static <T> List<T> copy(final Iterator<T> iterator) {
+        final List<T> result = new ArrayList<T>();
+        while (iterator.hasNext()) {
+            result.add(iterator.next());
+        }
+        return result;
+    }
+
+    public void testReadahead() throws IOException {
+        Random random = new Random(0);
+        final List<Long> list = new ArrayList<Long>();
+        for (int i = 0; i < 10000; ++i) {
+            list.add((long) random.nextInt(512));
+        }
+
+        final File file = File.createTempFile("testReadahead", "");
+        file.deleteOnExit();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        CompressedListWriter.write(raf, list, Serializer.LONG, new CompressedListWriter.Options().setChunkSize(777));
+        final CompressedList<Long> compressedList = CompressedList.create(MappedByteSource.map(raf), Serializer.LONG, 0);
+        final ChunkToc toc = compressedList.getToc();
+        compressedList.setReadahead(3, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                command.run();
+            }
+        });
+
+        // Forward through chunks 10, 11, 12.
+        for (int c = 10; c <= 12; ++c) {
+            assertEquals(list.get(toc.chunkLastElement(c) - 1), compressedList.get(toc.chunkLastElement(c) - 1));
+        }
+        for (int c = 13; c <= 15; ++c) {
+            assertTrue(compressedList.chunkCache.contains(c));
+        }
+        assertFalse(compressedList.chunkCache.contains(16));
+
+        // A jump stops it.
+        compressedList.get(toc.chunkLastElement(50) - 1);
+        assertFalse(compressedList.chunkCache.contains(51));
+
+        // Backward through chunks 80, 79, 78.
+        for (int c = 80; c >= 78; --c) {
+            compressedList.get(toc.chunkLastElement(c) - 1);
+        }
+        for (int c = 75; c <= 77; ++c) {
+            assertTrue(compressedList.chunkCache.contains(c));
+        }
+        assertFalse(compressedList.chunkCache.contains(74));
+
+        compressedList.setReadahead(0, null);
+        for (int c = 90; c <= 95; ++c) {
+            compressedList.get(toc.chunkLastElement(c) - 1);
+        }
+        assertFalse(compressedList.chunkCache.contains(96));
+    }
+
+    public void testChunkTuning() throws IOException {
+        Random random = new Random(0);
+        final List<String> list = new ArrayList<String>();
+        for (int i = 0; i < 20000; ++i) {
+            list.add("element" + random.nextInt(1000));
+        }
+
+        final File file = File.createTempFile("testChunkTuning", "");
+        file.deleteOnExit();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final List<CompressedListWriter.Options> options = Arrays.asList(
+                new CompressedListWriter.Options().setMaxElementsPerChunk(10),
+                new CompressedListWriter.Options().tuneForCompressionRatio(0.01),
+                new CompressedListWriter.Options().tuneForCompressionRatio(1000),
+                new CompressedListWriter.Options().tuneForDecodeMicros(1e9).setCodec(ChunkCodec.LZ),
+                new CompressedListWriter.Options().tuneForCompressionRatio(2).setDictionarySize(1024));
+        final List<Long> starts = new ArrayList<Long>();
+        final List<ChunkTuning> tunings = new ArrayList<ChunkTuning>();
+        for (final CompressedListWriter.Options o : options) {
+            starts.add(raf.getFilePointer());
+            final CompressedListBuilder<String> builder = CompressedListWriter.builder(raf, Serializer.STRING, o);
+            builder.addAll(list.iterator());
+            builder.close();
+            tunings.add(builder.getTuning());
+        }
+        starts.add(raf.getFilePointer());
+        CompressedListWriter.write(raf, list, Serializer.STRING, options.get(1));
+
+        final List<CompressedList<String>> lists = new ArrayList<CompressedList<String>>();
+        for (final long start : starts) {
+            final CompressedList<String> compressedList = CompressedList.create(MappedByteSource.map(raf), Serializer.STRING, start, TocMode.ON_DEMAND);
+            assertEquals(list, compressedList);
+            lists.add(compressedList);
+        }
+
+        assertNull(lists.get(0).getTuning());
+        final ChunkToc toc = lists.get(0).getToc();
+        for (int c = 0; c < toc.numChunks(); ++c) {
+            assertTrue(toc.chunkLastElement(c) - (c == 0 ? 0 : toc.chunkLastElement(c - 1)) <= 10);
+        }
+
+        // The lowest target is met by the smallest chunks, and nothing meets
+        // the highest, so the best compressed is picked.
+        assertEquals(ChunkTuning.CANDIDATE_CHUNK_SIZES[0], lists.get(1).getTuning().chunkSize);
+        final ChunkTuning largest = lists.get(2).getTuning();
+        final ChunkTuning.Measurement last = largest.measurements.get(largest.measurements.size() - 1);
+        assertEquals(last.chunkSize, largest.chunkSize);
+        assertEquals(largest.chunkSize, lists.get(3).getTuning().chunkSize);
+        assertTrue(largest.measurements.get(0).compressionRatio < last.compressionRatio);
+        assertTrue(lists.get(2).numChunks() < lists.get(1).numChunks());
+        assertEquals(lists.get(1).numChunks(), lists.get(5).numChunks());
+        for (int i = 1; i < tunings.size(); ++i) {
+            assertEquals(tunings.get(i).toString(), lists.get(i).getTuning().toString());
+            assertEquals(Integer.MAX_VALUE, tunings.get(i).maxElementsPerChunk);
+        }
+    }
+
+    public void testVarIntOffsets() throws IOException {
+        Random random = new Random(0);
+        final List<Long> list = new ArrayList<Long>();
+        for (int i = 0; i < 20000; ++i) {
+            list.add((long) random.nextInt(512));
+        }
+
+        final File file = File.createTempFile("testVarIntOffsets", "");
+        file.deleteOnExit();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final List<CompressedListWriter.Options> options = Arrays.asList(
+                new CompressedListWriter.Options().setCodec(ChunkCodec.STORE),
+                new CompressedListWriter.Options().setCodec(ChunkCodec.STORE).setVarIntOffsets(true),
+                new CompressedListWriter.Options().setVarIntOffsets(true).setChunkSize(100),
+                new CompressedListWriter.Options().setVarIntOffsets(true).setMaxElementsPerChunk(CompressedList.OFFSET_SAMPLING_INTERVAL)
+                        .setCodec(ChunkCodec.LZ),
+                new CompressedListWriter.Options().setVarIntOffsets(true).tuneForCompressionRatio(2));
+        final List<Long> starts = new ArrayList<Long>();
+        for (final CompressedListWriter.Options o : options) {
+            starts.add(raf.getFilePointer());
+            CompressedListWriter.write(raf, list, Serializer.LONG, o);
+        }
+        starts.add(raf.getFilePointer());
+        // Longs are 8 bytes, so the offsets were a third of each chunk.
+        assertTrue((starts.get(2) - starts.get(1)) * 10 < (starts.get(1) - starts.get(0)) * 8);
+
+        for (int s = 0; s < options.size(); ++s) {
+            final CompressedList<Long> compressedList = CompressedList.create(MappedByteSource.map(raf), Serializer.LONG, starts.get(s), TocMode.ON_DEMAND);
+            assertEquals(list, compressedList);
+            for (int i = list.size() - 1; i >= 0; i -= 7) {
+                assertEquals(list.get(i), compressedList.get(i));
+            }
+            assertEquals(Arrays.asList(list.get(5), list.get(17), list.get(16)), compressedList.getAll(new int[] {5, 17, 16}));
+        }
+        final long emptyStart = raf.getFilePointer();
+        final CompressedListBuilder<Long> empty = CompressedListWriter.builder(raf, Serializer.LONG,
+                new CompressedListWriter.Options().setVarIntOffsets(true));
+        empty.close();
+        assertTrue(CompressedList.create(MappedByteSource.map(raf), Serializer.LONG, emptyStart, TocMode.ON_DEMAND).isEmpty());
+    }
+
+    public void testKeyIndex() throws IOException {
+        Random random = new Random(0);
+        final TreeSet<String> keys = new TreeSet<String>();
+        while (keys.size() < 5000) {
+            keys.add("key" + random.nextInt(100000));
+        }
+        final List<String> sortedKeys = new ArrayList<String>(keys);
+        final List<String> list = new ArrayList<String>();
+        for (final String key : sortedKeys) {
+            list.add(key + ":value" + random.nextInt(1000));
+        }
+        final CompressedList.KeyFunction<String> keyFunction = new CompressedList.KeyFunction<String>() {
+            @Override
+            public String key(final String t) {
+                return t.substring(0, t.indexOf(':'));
+            }
+        };
+        final Comparator<String> comparator = new Comparator<String>() {
+            @Override
+            public int compare(final String s1, final String s2) {
+                return s1.compareTo(s2);
+            }
+        };
+
+        final File file = File.createTempFile("testKeyIndex", "");
+        file.deleteOnExit();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final List<Long> starts = new ArrayList<Long>();
+        starts.add(raf.getFilePointer());
+        CompressedListWriter.write(raf, list, Serializer.STRING, new CompressedListWriter.Options().setChunkSize(512));
+        starts.add(raf.getFilePointer());
+        CompressedListWriter.write(raf, list, Serializer.STRING, new CompressedListWriter.Options().setChunkSize(512), keyFunction);
+        starts.add(raf.getFilePointer());
+        final CompressedListBuilder<String> builder = CompressedListWriter.builder(raf, Serializer.STRING,
+                new CompressedListWriter.Options().setChunkSize(512).setDictionarySize(1024).setVarIntOffsets(true), keyFunction);
+        builder.addAll(list.iterator());
+        builder.close();
+        final long emptyStart = raf.getFilePointer();
+        CompressedListWriter.write(raf, Collections.<String>emptyList(), Serializer.STRING, new CompressedListWriter.Options(), keyFunction);
+        raf.writeUTF("end");
+
+        for (final long start : starts) {
+            final CompressedList<String> compressedList = CompressedList.create(MappedByteSource.map(raf), Serializer.STRING, start, TocMode.ON_DEMAND);
+            assertEquals(list, compressedList);
+            for (int i = 0; i < sortedKeys.size(); i += 11) {
+                assertEquals(i, compressedList.search(sortedKeys.get(i), keyFunction, comparator));
+                final String missing = sortedKeys.get(i) + "0";
+                assertEquals(Collections.binarySearch(sortedKeys, missing),
+                        compressedList.search(missing, keyFunction, comparator));
+            }
+            assertEquals(-1, compressedList.search("a", keyFunction, comparator));
+            assertEquals(-(list.size() + 1), compressedList.search("z", keyFunction, comparator));
+        }
+
+        // With the index, a search decompresses only the chunk key is in.
+        for (final long start : starts) {
+            final CompressedList<String> compressedList = CompressedList.create(MappedByteSource.map(raf), Serializer.STRING, start, TocMode.ON_DEMAND);
+            assertEquals(1234, compressedList.search(sortedKeys.get(1234), keyFunction, comparator));
+            int chunksRead = 0;
+            for (int c = 0; c < compressedList.numChunks(); ++c) {
+                chunksRead += compressedList.chunkCache.contains(c) ? 1 : 0;
+            }
+            if (start == starts.get(0)) {
+                assertTrue(chunksRead > 5);
+            } else {
+                assertEquals(1, chunksRead);
+            }
+        }
+
+        final CompressedList<String> empty = CompressedList.create(MappedByteSource.map(raf), Serializer.STRING, emptyStart, TocMode.ON_DEMAND);
+        assertEquals(-1, empty.search("key", keyFunction, comparator));
+        raf.seek(raf.length() - 5);
+        assertEquals("end", raf.readUTF());
+    }
+
 }
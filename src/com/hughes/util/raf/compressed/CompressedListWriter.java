@@ -7,83 +7,237 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.channels.Channels;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
 
 @TargetApi(Build.VERSION_CODES.KITKAT)
 public class CompressedListWriter {
     
-    public static <T> void write(final RandomAccessFile raf,
-            final Collection<T> list, final Serializer<T> serializer, int chunkSize)
-            throws IOException {
-        assert chunkSize > 0;
-        final long startLocation = raf.getFilePointer();
-        raf.writeLong(0); // placeholder for tocPos
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
 
-        final List<Long> chunkStartPositions = new ArrayList<Long>();
-        final List<Integer> chunkLastElements = new ArrayList<Integer>();
+    /**
+     * Settings for lists written in the fixed-width TOC format, which
+     * CompressedList can open without decompressing the TOC and can search
+     * in place.
+     */
+    public static final class Options {
+        int chunkSize = DEFAULT_CHUNK_SIZE;
+        ChunkCodec codec;
+        int dictionarySize;
+        Executor executor;
+        int maxElementsPerChunk = Integer.MAX_VALUE;
+        boolean varIntOffsets;
+        double targetDecodeMicros;
+        double targetCompressionRatio;
 
-        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        final DataOutputStream dataOut = new DataOutputStream(baos);
-        final List<Integer> elementStarts = new ArrayList<Integer>();
-        int elementCount = 0;
-        for (final T t : list) {
-            if (baos.size() > chunkSize) {
-                writeChunk(raf, baos, elementStarts, elementCount, chunkStartPositions,
-                           chunkLastElements);
+        /**
+         * Uncompressed bytes after which a chunk is closed.
+         */
+        public Options setChunkSize(final int chunkSize) {
+            if (chunkSize <= 0) {
+                throw new IllegalArgumentException("chunkSize=" + chunkSize);
+            }
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Elements after which a chunk is closed, even if it's smaller than
+         * the chunk size. Bounds the work a get() does to decode a chunk of
+         * many tiny elements. The default is no limit.
+         */
+        public Options setMaxElementsPerChunk(final int maxElementsPerChunk) {
+            if (maxElementsPerChunk <= 0) {
+                throw new IllegalArgumentException("maxElementsPerChunk=" + maxElementsPerChunk);
+            }
+            this.maxElementsPerChunk = maxElementsPerChunk;
+            return this;
+        }
+
+        /**
+         * Stores where each element starts in a chunk as varint element
+         * lengths instead of 4-byte offsets, which for short elements
+         * shrinks chunks, and the decompressed chunks that get() caches,
+         * by up to 3 bytes an element. Finding an element walks the lengths
+         * from the nearest of the starts sampled when the chunk was
+         * decompressed.
+         */
+        public Options setVarIntOffsets(final boolean varIntOffsets) {
+            this.varIntOffsets = varIntOffsets;
+            return this;
+        }
+
+        /**
+         * Instead of using the chunk size set, picks the largest (so best
+         * compressed) chunk size whose chunks decompress in about
+         * targetDecodeMicros, measured on the first elements written. See
+         * ChunkTuning. The timing depends on the machine and its load, so
+         * tuned files aren't byte-for-byte reproducible.
+         */
+        public Options tuneForDecodeMicros(final double targetDecodeMicros) {
+            if (!(targetDecodeMicros > 0)) {
+                throw new IllegalArgumentException("targetDecodeMicros=" + targetDecodeMicros);
             }
+            this.targetDecodeMicros = targetDecodeMicros;
+            this.targetCompressionRatio = 0;
+            return this;
+        }
 
-            elementStarts.add(baos.size());
-            serializer.write(dataOut, t);
-            dataOut.flush();
-            ++elementCount;
+        /**
+         * Instead of using the chunk size set, picks the smallest (so fastest
+         * to get() from) chunk size that compresses the first elements
+         * written by targetCompressionRatio. See ChunkTuning.
+         */
+        public Options tuneForCompressionRatio(final double targetCompressionRatio) {
+            if (!(targetCompressionRatio > 0)) {
+                throw new IllegalArgumentException("targetCompressionRatio=" + targetCompressionRatio);
+            }
+            this.targetCompressionRatio = targetCompressionRatio;
+            this.targetDecodeMicros = 0;
+            return this;
         }
-        writeChunk(raf, baos, elementStarts, elementCount, chunkStartPositions, chunkLastElements);
 
-        final long tocPos = raf.getFilePointer();
+        boolean tuning() {
+            return targetDecodeMicros > 0 || targetCompressionRatio > 0;
+        }
 
-        DataOutputStream tocOut = new DataOutputStream(new GZIPOutputStream(
-                Channels.newOutputStream(raf.getChannel()), true));
-        tocOut.writeInt(chunkStartPositions.size());
-        for (int i = 0; i < chunkStartPositions.size(); ++i) {
-            tocOut.writeLong(chunkStartPositions.get(i));
-            tocOut.writeInt(chunkLastElements.get(i));
+        /**
+         * Compresses chunks with codec, which is recorded in the list header.
+         * The default, null, gzips them, or deflates them if tuning, using
+         * varint offsets or writing a key index, since those are recorded in
+         * the codec header.
+         */
+        public Options setCodec(final ChunkCodec codec) {
+            this.codec = codec;
+            return this;
         }
-        tocOut.flush();
 
-        long endPos = raf.getFilePointer();
-        raf.seek(startLocation);
-        raf.writeLong(tocPos);
-        raf.seek(endPos);
+        /**
+         * Trains a preset dictionary of up to dictionarySize bytes on samples
+         * of the list, and deflates chunks with it (see
+         * ChunkCodec.deflate(int, byte[])). This costs dictionarySize bytes
+         * once, but gives each chunk history to refer back to, which matters
+         * most for small chunks. 0, the default, trains none.
+         */
+        public Options setDictionarySize(final int dictionarySize) {
+            if (dictionarySize < 0) {
+                throw new IllegalArgumentException("dictionarySize=" + dictionarySize);
+            }
+            this.dictionarySize = dictionarySize;
+            return this;
+        }
+
+        /**
+         * Compresses chunks on executor, several at a time. Elements are
+         * still serialized, and chunks written, in order on the calling
+         * thread, so the file is the same as without an executor. The
+         * default, null, compresses on the calling thread.
+         */
+        public Options setExecutor(final Executor executor) {
+            this.executor = executor;
+            return this;
+        }
     }
 
-    private static void writeChunk(final RandomAccessFile raf, 
-            final ByteArrayOutputStream uncompressedBytes,
-            final List<Integer> elementStarts, int endElement,
-            final List<Long> chunkStartPositions, List<Integer> chunkLastElements)
+    /**
+     * Writes list in the original format, with a gzipped TOC.
+     */
+    public static <T> void write(final RandomAccessFile raf,
+            final Collection<T> list, final Serializer<T> serializer, int chunkSize)
             throws IOException {
-        chunkStartPositions.add(raf.getFilePointer());
-        chunkLastElements.add(endElement);
-
-        ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream();
-        DataOutputStream chunkOut = new DataOutputStream(new GZIPOutputStream(compressedBytes));
-        chunkOut.writeInt(elementStarts.size());
-        for (final Integer elementStart : elementStarts) {
-            chunkOut.writeInt(elementStart);
+        assert chunkSize > 0;
+        final CompressedListBuilder<T> builder = new CompressedListBuilder<T>(raf, serializer,
+                new Options().setChunkSize(chunkSize), null, 0, true, null);
+        builder.addAll(list.iterator());
+        builder.close();
+    }
+
+    /**
+     * Writes list in the fixed-width TOC format. A dictionary is trained on
+     * samples from the whole list.
+     */
+    public static <T> void write(final RandomAccessFile raf,
+            final Collection<T> list, final Serializer<T> serializer, final Options options)
+            throws IOException {
+        write(raf, list, serializer, options, null);
+    }
+
+    /**
+     * Same, and stores the key of the first element of each chunk after the
+     * TOC, so that CompressedList.search() on a list sorted by key
+     * decompresses just the chunk the key is in.
+     */
+    public static <T> void write(final RandomAccessFile raf,
+            final Collection<T> list, final Serializer<T> serializer, final Options options,
+            final CompressedList.KeyFunction<? super T> keyFunction)
+            throws IOException {
+        ChunkCodec codec = options.codec;
+        if (options.dictionarySize > 0) {
+            if (codec != null && codec.id() != ChunkCodec.DEFLATE_ID) {
+                throw new IllegalArgumentException("Dictionaries need deflate, not codec " + codec.id());
+            }
+            codec = ChunkCodec.deflate(Deflater.DEFAULT_COMPRESSION,
+                    trainDictionary(list, serializer, options.dictionarySize));
         }
-        final byte[] bytes = uncompressedBytes.toByteArray();
-        chunkOut.writeInt(bytes.length);
-        chunkOut.write(bytes);
-        chunkOut.close();
-        
-        raf.write(compressedBytes.toByteArray());
-
-        elementStarts.clear();
-        uncompressedBytes.reset();
+        final CompressedListBuilder<T> builder = new CompressedListBuilder<T>(raf, serializer,
+                options, codec, 0, false, keyFunction);
+        builder.addAll(list.iterator());
+        builder.close();
+    }
+
+    /**
+     * Returns a builder that writes a list in the fixed-width TOC format
+     * element by element, for lists too big to hold in memory. A dictionary
+     * is trained on the first elements.
+     */
+    public static <T> CompressedListBuilder<T> builder(final RandomAccessFile raf,
+            final Serializer<T> serializer, final Options options) throws IOException {
+        return builder(raf, serializer, options, null);
+    }
+
+    /**
+     * Same, with a key index; see write().
+     */
+    public static <T> CompressedListBuilder<T> builder(final RandomAccessFile raf,
+            final Serializer<T> serializer, final Options options,
+            final CompressedList.KeyFunction<? super T> keyFunction) throws IOException {
+        return new CompressedListBuilder<T>(raf, serializer, options, options.codec,
+                options.dictionarySize, false, keyFunction);
+    }
+
+    /**
+     * Trains a dictionary on runs of consecutive elements spread evenly over
+     * list.
+     */
+    private static <T> byte[] trainDictionary(final Collection<T> list,
+            final Serializer<T> serializer, final int dictionarySize) throws IOException {
+        final int numSamples = Math.max(1, dictionarySize
+                * CompressedListBuilder.SAMPLES_PER_DICTIONARY_BYTE / CompressedListBuilder.SAMPLE_SIZE);
+        final int stride = Math.max(1, list.size() / numSamples);
+        final List<byte[]> samples = new ArrayList<byte[]>();
+        final ByteArrayOutputStream sample = new ByteArrayOutputStream();
+        final DataOutputStream sampleOut = new DataOutputStream(sample);
+        int i = 0;
+        for (final T t : list) {
+            // Start a sample every stride elements, and finish it even if
+            // that takes longer.
+            if (sample.size() > 0 || i % stride == 0) {
+                serializer.write(sampleOut, t);
+                sampleOut.flush();
+                if (sample.size() >= CompressedListBuilder.SAMPLE_SIZE) {
+                    samples.add(sample.toByteArray());
+                    sample.reset();
+                }
+            }
+            ++i;
+        }
+        if (sample.size() > 0) {
+            samples.add(sample.toByteArray());
+        }
+        return DictionaryTrainer.train(samples, dictionarySize);
     }
 
-    
 }
@@ -0,0 +1,136 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf.compressed;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Builds a preset deflate dictionary out of the segments of sample data that
+ * cover the most 8-byte sequences shared between samples. Segments are
+ * picked greedily; once a sequence is in the dictionary it stops counting
+ * towards other segments, so the dictionary doesn't repeat itself.
+ */
+final class DictionaryTrainer {
+
+    private static final int K = 8;
+    static final int SEGMENT_SIZE = 64;
+
+    private DictionaryTrainer() {
+    }
+
+    private static final class Segment implements Comparable<Segment> {
+        final byte[] sample;
+        final int start;
+        final int end;
+        int score;
+
+        Segment(final byte[] sample, final int start) {
+            this.sample = sample;
+            this.start = start;
+            this.end = Math.min(sample.length, start + SEGMENT_SIZE);
+        }
+
+        @Override
+        public int compareTo(final Segment other) {
+            return other.score - score;
+        }
+    }
+
+    static byte[] train(final List<byte[]> samples, final int dictionarySize) {
+        // How many samples each sequence occurs in.
+        final Map<Long, Integer> counts = new HashMap<Long, Integer>();
+        final Set<Long> seen = new HashSet<Long>();
+        for (final byte[] sample : samples) {
+            seen.clear();
+            for (int i = 0; i + K <= sample.length; ++i) {
+                final Long sequence = sequence(sample, i);
+                if (seen.add(sequence)) {
+                    final Integer count = counts.get(sequence);
+                    counts.put(sequence, count == null ? 1 : count + 1);
+                }
+            }
+        }
+
+        final PriorityQueue<Segment> queue = new PriorityQueue<Segment>();
+        for (final byte[] sample : samples) {
+            for (int start = 0; start + K <= sample.length; start += SEGMENT_SIZE / 2) {
+                final Segment segment = new Segment(sample, start);
+                segment.score = score(segment, counts);
+                if (segment.score > 0) {
+                    queue.add(segment);
+                }
+            }
+        }
+
+        // Scores only go down as sequences are used, so a segment whose
+        // rescored value still beats the rest of the queue is the best one.
+        final List<Segment> picked = new ArrayList<Segment>();
+        int size = 0;
+        while (size < dictionarySize && !queue.isEmpty()) {
+            final Segment segment = queue.poll();
+            final int score = score(segment, counts);
+            if (score <= 0) {
+                continue;
+            }
+            if (!queue.isEmpty() && score < queue.peek().score) {
+                segment.score = score;
+                queue.add(segment);
+                continue;
+            }
+            picked.add(segment);
+            size += segment.end - segment.start;
+            for (int i = segment.start; i + K <= segment.end; ++i) {
+                counts.remove(sequence(segment.sample, i));
+            }
+        }
+
+        // Deflate reaches the end of the dictionary with the shortest
+        // distances, so the best segments go last.
+        final byte[] dictionary = new byte[Math.min(size, dictionarySize)];
+        int end = dictionary.length;
+        for (final Segment segment : picked) {
+            final int length = Math.min(end, segment.end - segment.start);
+            System.arraycopy(segment.sample, segment.end - length, dictionary, end - length, length);
+            end -= length;
+        }
+        return dictionary;
+    }
+
+    private static int score(final Segment segment, final Map<Long, Integer> counts) {
+        int score = 0;
+        for (int i = segment.start; i + K <= segment.end; ++i) {
+            final Integer count = counts.get(sequence(segment.sample, i));
+            if (count != null && count > 1) {
+                score += count;
+            }
+        }
+        return score;
+    }
+
+    private static Long sequence(final byte[] bytes, final int i) {
+        long result = 0;
+        for (int j = i; j < i + K; ++j) {
+            result = (result << 8) | (bytes[j] & 0xff);
+        }
+        return result;
+    }
+
+}
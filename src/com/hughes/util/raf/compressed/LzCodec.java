@@ -0,0 +1,168 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.util.raf.compressed;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * ChunkCodec.LZ: the LZ4 block format, compressed greedily with a hash table
+ * of 4-byte sequences. Each sequence is a token byte holding 4 bits of
+ * literal length and 4 bits of match length (minus MIN_MATCH), more length
+ * bytes when a nibble is 15, the literals, and a 2-byte little-endian match
+ * offset. The last sequence is only literals.
+ */
+final class LzCodec extends ChunkCodec {
+
+    private static final int MIN_MATCH = 4;
+    // Matches stop this far from the end, so the last sequence has literals.
+    private static final int LAST_LITERALS = 5;
+    private static final int MAX_OFFSET = 0xffff;
+    private static final int HASH_BITS = 12;
+
+    @Override
+    public int id() {
+        return LZ_ID;
+    }
+
+    @Override
+    public byte[] compress(final byte[] in, final int offset, final int length) {
+        final byte[] out = new byte[length + length / 255 + 16];
+        // Position + 1 of the last sequence with each hash, 0 for none.
+        final int[] table = new int[1 << HASH_BITS];
+        final int end = offset + length;
+        final int matchLimit = end - LAST_LITERALS;
+        int anchor = offset;
+        int ip = offset;
+        int op = 0;
+        while (ip + MIN_MATCH <= matchLimit) {
+            final int sequence = readInt(in, ip);
+            final int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            final int ref = table[hash] - 1;
+            table[hash] = ip + 1;
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(in, ref) != sequence) {
+                ++ip;
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while (ip + matchLength < matchLimit && in[ref + matchLength] == in[ip + matchLength]) {
+                ++matchLength;
+            }
+            final int token = op;
+            op = writeSequence(in, anchor, ip - anchor, out, op);
+            out[op++] = (byte) (ip - ref);
+            out[op++] = (byte) ((ip - ref) >>> 8);
+            out[token] |= (byte) Math.min(matchLength - MIN_MATCH, 15);
+            op = writeLength(matchLength - MIN_MATCH, out, op);
+            ip += matchLength;
+            anchor = ip;
+        }
+        op = writeSequence(in, anchor, end - anchor, out, op);
+        final byte[] result = new byte[op];
+        System.arraycopy(out, 0, result, 0, op);
+        return result;
+    }
+
+    /**
+     * Writes a token with the literal length nibble set, followed by the
+     * literals.
+     */
+    private static int writeSequence(final byte[] in, final int from, final int length,
+            final byte[] out, int op) {
+        out[op++] = (byte) (Math.min(length, 15) << 4);
+        op = writeLength(length, out, op);
+        System.arraycopy(in, from, out, op, length);
+        return op + length;
+    }
+
+    private static int writeLength(int length, final byte[] out, int op) {
+        if (length < 15) {
+            return op;
+        }
+        for (length -= 15; length >= 255; length -= 255) {
+            out[op++] = (byte) 255;
+        }
+        out[op++] = (byte) length;
+        return op;
+    }
+
+    private static int readInt(final byte[] in, final int i) {
+        return (in[i] & 0xff) | (in[i + 1] & 0xff) << 8 | (in[i + 2] & 0xff) << 16 | in[i + 3] << 24;
+    }
+
+    @Override
+    public void decompress(final ByteBuffer compressed, final byte[] out, final int offset,
+            final int length) throws IOException {
+        final int inEnd = compressed.remaining();
+        final byte[] in = ChunkDecoder.get().input(compressed);
+        final int end = offset + length;
+        int ip = 0;
+        int op = offset;
+        try {
+            while (true) {
+                if (ip >= inEnd) {
+                    throw new IOException("Truncated LZ chunk");
+                }
+                final int token = in[ip++] & 0xff;
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int b;
+                    do {
+                        b = in[ip++] & 0xff;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                if (op + literalLength > end || ip + literalLength > inEnd) {
+                    throw new IOException("LZ chunk overruns " + length + " bytes");
+                }
+                System.arraycopy(in, ip, out, op, literalLength);
+                ip += literalLength;
+                op += literalLength;
+                if (ip == inEnd) {
+                    break;
+                }
+
+                final int matchOffset = (in[ip++] & 0xff) | (in[ip++] & 0xff) << 8;
+                int matchLength = (token & 15) + MIN_MATCH;
+                if ((token & 15) == 15) {
+                    int b;
+                    do {
+                        b = in[ip++] & 0xff;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                int ref = op - matchOffset;
+                if (matchOffset == 0 || ref < offset || op + matchLength > end || ip > inEnd) {
+                    throw new IOException("Corrupt LZ chunk at " + ip);
+                }
+                if (matchOffset >= matchLength) {
+                    System.arraycopy(out, ref, out, op, matchLength);
+                    op += matchLength;
+                } else {
+                    // Overlapping copy, which repeats the last matchOffset bytes.
+                    for (final int matchEnd = op + matchLength; op < matchEnd;) {
+                        out[op++] = out[ref++];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated LZ chunk", e);
+        }
+        if (op != end) {
+            throw new IOException("LZ chunk has " + (op - offset) + " bytes, expected " + length);
+        }
+    }
+
+}